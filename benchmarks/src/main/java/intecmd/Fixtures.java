@@ -0,0 +1,102 @@
+package intecmd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generated input for the benchmarks. Everything is made from a fixed
+ * seed, so every build measures the same data.
+ */
+public final class Fixtures {
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Writes lines of 5 to 20 words to a temporary file.
+     *
+     * @param kilobytes how large the file gets, roughly
+     * @param needle    appended to about one line in a thousand, may be null
+     */
+    public static File textFile(long kilobytes, String needle) throws IOException {
+        File file = File.createTempFile("benchmark", ".txt");
+        file.deleteOnExit();
+        writeText(file.toPath(), kilobytes * 1024, needle, new Random(42));
+        return file;
+    }
+
+    /**
+     * Builds a tree of directories with text files in every directory.
+     *
+     * @param depth       levels of directories below the root
+     * @param fanOut      directories in every directory that is not a leaf
+     * @param files       text files in every directory
+     * @param kilobytes   size of every file
+     * @param needle      appended to about one line in a thousand, may be null
+     * @return the root, removed again by {@link #delete(File)}
+     */
+    public static File directoryTree(int depth, int fanOut, int files, long kilobytes, String needle) throws IOException {
+        Path root = Files.createTempDirectory("benchmark");
+        fill(root, depth, fanOut, files, kilobytes * 1024, needle, new Random(42));
+        return root.toFile();
+    }
+
+    /**
+     * Makes a directory with empty files and empty directories in it.
+     *
+     * @return the directory, removed again by {@link #delete(File)}
+     */
+    public static File flatDirectory(int files, int directories) throws IOException {
+        Path root = Files.createTempDirectory("benchmark");
+        for (int i = 0; i < files; i++)
+            Files.createFile(root.resolve("file" + i + ".txt"));
+        for (int i = 0; i < directories; i++)
+            Files.createDirectory(root.resolve("directory" + i));
+        return root.toFile();
+    }
+
+    private static void fill(Path directory, int depth, int fanOut, int files, long bytes, String needle, Random random) throws IOException {
+        for (int i = 0; i < files; i++)
+            writeText(directory.resolve("file" + i + ".txt"), bytes, needle, random);
+        if (depth == 0)
+            return;
+        for (int i = 0; i < fanOut; i++)
+            fill(Files.createDirectory(directory.resolve("directory" + i)), depth - 1, fanOut, files, bytes, needle, random);
+    }
+
+    private static void writeText(Path path, long size, String needle, Random random) throws IOException {
+        long written = 0;
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            while (written < size) {
+                line.setLength(0);
+                int count = 5 + random.nextInt(15);
+                for (int i = 0; i < count; i++)
+                    line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                if (needle != null && random.nextInt(1000) == 0)
+                    line.append(needle);
+                line.append('\n');
+                writer.write(line.toString());
+                written += line.length();
+            }
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory with everything in it.
+     */
+    public static void delete(File file) throws IOException {
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package intecmd;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the tokenizer against the one it replaced, which appended a
+ * space to the line and collected the tokens in a list before copying
+ * them into an array. {@code scan} is the tokenizer without making
+ * strings of the tokens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"cd ..", "grep -n -r \"some text\" src | wc -l"})
+    public String line;
+
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    @Benchmark
+    public String[] previous() {
+        String line = this.line + " ";
+        ArrayList<String> tokens = new ArrayList<>();
+        boolean quoted = false;
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '|' && !quoted) {
+                if (stringBuilder.length() > 0) {
+                    tokens.add(stringBuilder.toString());
+                    stringBuilder.delete(0, stringBuilder.length());
+                }
+                tokens.add("|");
+            } else if (c == '\"' || c == ' ' && !quoted) {
+                if (c == '\"')
+                    quoted = !quoted;
+                if (!quoted && stringBuilder.length() > 0) {
+                    tokens.add(stringBuilder.toString());
+                    stringBuilder.delete(0, stringBuilder.length());
+                }
+            } else
+                stringBuilder.append(c);
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    @Benchmark
+    public String[] tokenize() {
+        return tokenizer.tokenize(line);
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        int count = tokenizer.scan(line);
+        for (int i = 0; i < count; i++)
+            blackhole.consume(tokenizer.isPipe(i) || tokenizer.tokenEquals(i, "cd"));
+    }
+}
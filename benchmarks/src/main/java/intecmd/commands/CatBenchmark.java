@@ -0,0 +1,134 @@
+package intecmd.commands;
+
+import intecmd.StandardOutput;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a file with cat in every way it can write it out.
+ * <p>
+ * {@link #byteAtATime} and {@link #chunked} compare cat -u writing one
+ * byte at a time, as it used to, against writing and flushing every chunk
+ * that is read. {@link #stream} is plain cat once System.out has been
+ * replaced. These write to a PrintStream that drops everything, so only
+ * the copying is measured.
+ * <p>
+ * {@link #transferTo} and {@link #directBuffer} are plain cat writing to
+ * the channel of the standard output, redirected to a file and to a
+ * terminal. That needs a real file to end up in, as a channel of any
+ * other kind would make transferTo copy through a heap buffer as well,
+ * so they write to a temporary file that is emptied before every copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatBenchmark {
+
+    @Param({"8"})
+    public int megabytes;
+
+    private File file;
+    private File copy;
+    private FileChannel copyChannel;
+    private PrintStream originalOut;
+    private PrintStream nullOut;
+    private ConcatenateCommand unbuffered;
+    private ConcatenateCommand buffered;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("cat-benchmark", ".txt");
+        file.deleteOnExit();
+        byte[] content = new byte[megabytes * 1024 * 1024];
+        Random random = new Random(42);
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) (random.nextInt(10) == 0 ? '\n' : 'a' + random.nextInt(26));
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        copy = File.createTempFile("cat-benchmark", ".out");
+        copy.deleteOnExit();
+        copyChannel = FileChannel.open(copy.toPath(), StandardOpenOption.WRITE);
+        originalOut = System.out;
+        nullOut = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, true);
+        System.setOut(nullOut);
+        //both write to System.out, which is the stream they were created with
+        unbuffered = new ConcatenateCommand();
+        unbuffered.in(new String[]{"-u"});
+        buffered = new ConcatenateCommand();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        StandardOutput.install(null, null, false);
+        System.setOut(originalOut);
+        nullOut.close();
+        copyChannel.close();
+        copy.delete();
+        file.delete();
+    }
+
+    @Benchmark
+    public void byteAtATime() throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            int r;
+            while ((r = is.read()) != -1)
+                System.out.write(r);
+        }
+    }
+
+    @Benchmark
+    public void chunked() throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            unbuffered.cat(is, file.getName());
+        }
+    }
+
+    @Benchmark
+    public void stream() throws IOException {
+        StandardOutput.install(null, null, false);
+        try (FileInputStream is = new FileInputStream(file)) {
+            buffered.cat(is, file.getName());
+        }
+    }
+
+    @Benchmark
+    public void transferTo() throws IOException {
+        copyToChannel(false);
+    }
+
+    @Benchmark
+    public void directBuffer() throws IOException {
+        copyToChannel(true);
+    }
+
+    private void copyToChannel(boolean terminal) throws IOException {
+        copyChannel.truncate(0);
+        StandardOutput.install(nullOut, copyChannel, terminal);
+        try (FileInputStream is = new FileInputStream(file)) {
+            buffered.cat(is, file.getName());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package intecmd.commands;
+
+import intecmd.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares searching a file as raw bytes with the Horspool matcher
+ * against decoding it line by line and calling String.contains.
+ * <p>
+ * Run with -prof gc to see the difference in allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrepBenchmark {
+
+    @Param({"16"})
+    public int megabytes;
+
+    @Param({"needle", "a considerably longer needle to search for"})
+    public String pattern;
+
+    private File file;
+    private LiteralMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Fixtures.textFile(megabytes * 1024L, pattern);
+        matcher = LiteralMatcher.forPattern(pattern, StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int bytes() throws IOException {
+        return GrepCommand.countMatches(file, matcher);
+    }
+
+    /**
+     * The way grep searched before the byte matcher, kept here because
+     * GrepCommand itself no longer has a path that does this.
+     */
+    @Benchmark
+    public int readLine() throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(pattern))
+                    count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package intecmd.commands;
+
+import intecmd.CurrentDirectory;
+import intecmd.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs whole grep commands through {@code executeSearch}: one file, and
+ * every text file of a directory tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrepCommandBenchmark {
+
+    /**
+     * Levels of directories below the searched one, every directory has
+     * {@link #fanOut} directories and {@link #files} files of 64 KB.
+     */
+    @Param({"2"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanOut;
+
+    @Param({"8"})
+    public int files;
+
+    private File tree;
+    private final CurrentDirectory currentDirectory = new CurrentDirectory();
+    private final GrepCommand grep = new GrepCommand(new PatternCache());
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = Fixtures.directoryTree(depth, fanOut, files, 64, "needle");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(tree);
+    }
+
+    @Benchmark
+    public String singleFile() {
+        currentDirectory.setCurrentDirectory(tree.getAbsolutePath());
+        return grep.executeSearch(new String[]{"grep", "-n", "needle", "file0.txt"});
+    }
+
+    @Benchmark
+    public String tree() {
+        currentDirectory.setCurrentDirectory(tree.getAbsolutePath());
+        return grep.executeSearch(new String[]{"grep", "-r", "-c", "needle", "*.txt"});
+    }
+
+    @Benchmark
+    public String treeRegex() {
+        currentDirectory.setCurrentDirectory(tree.getAbsolutePath());
+        return grep.executeSearch(new String[]{"grep", "-r", "-c", "-E", "ne+dle", "*.txt"});
+    }
+}
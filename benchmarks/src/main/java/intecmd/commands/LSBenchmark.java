@@ -0,0 +1,76 @@
+package intecmd.commands;
+
+import intecmd.Context;
+import intecmd.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists a directory with ls: read from the disk, answered from the
+ * {@link DirectoryCache}, and printed as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LSBenchmark {
+
+    /**
+     * Files in the listed directory, next to as many directories.
+     */
+    @Param({"100", "10000"})
+    public int entries;
+
+    private File directory;
+    private Context context;
+    private PrintStream nullOut;
+    private final LSCommand ls = new LSCommand();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Fixtures.flatDirectory(entries, entries);
+        context = new Context();
+        nullOut = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public LSCommand read() {
+        DirectoryCache.shared().invalidate(directory);
+        return new LSCommand(directory.getAbsolutePath());
+    }
+
+    @Benchmark
+    public LSCommand cached() {
+        return new LSCommand(directory.getAbsolutePath());
+    }
+
+    /**
+     * The directory of a session is global, it is set on every call in
+     * case another benchmark of the same fork changed it.
+     */
+    @Benchmark
+    public void list() {
+        context.currentDirectory().setCurrentDirectory(directory.getAbsolutePath());
+        ls.execute(new String[]{"ls", "-l"}, null, nullOut, context);
+    }
+}
@@ -0,0 +1,49 @@
+package intecmd.commands;
+
+import intecmd.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts a file with wc, streamed through {@code processStream} and
+ * memory mapped in parallel chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WordCountBenchmark {
+
+    @Param({"1", "64"})
+    public int megabytes;
+
+    private File file;
+    private WordCountCommand wc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Fixtures.textFile(megabytes * 1024L, null);
+        wc = new WordCountCommand();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long[] stream() throws Exception {
+        return wc.processStream(new FileInputStream(file));
+    }
+
+    @Benchmark
+    public long[] mapped() throws IOException {
+        return wc.processMapped(file);
+    }
+}
@@ -0,0 +1,172 @@
+package intecmd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed size ring buffer connecting a writing thread with a reading one.
+ * <p>
+ * The writer blocks while the buffer is full and the reader blocks while
+ * it is empty, so a fast producer is slowed down to the pace of its
+ * consumer and never more than the capacity is held in memory. Closing
+ * the sink ends the stream for the reader once the buffer is drained.
+ * Closing the source makes every further write fail, like a broken pipe,
+ * so the writer can stop producing output nobody reads.
+ * <p>
+ * Both sides give up with {@link InterruptedIOException} when their
+ * thread is interrupted while waiting.
+ */
+final class BoundedPipe {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head;
+    private int count;
+    private boolean sinkClosed;
+    private boolean sourceClosed;
+
+    private final InputStream source = new Source();
+    private final OutputStream sink = new Sink();
+
+    BoundedPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    BoundedPipe(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * @return the reading end
+     */
+    InputStream source() {
+        return source;
+    }
+
+    /**
+     * @return the writing end
+     */
+    OutputStream sink() {
+        return sink;
+    }
+
+    private static void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipe was interrupted.");
+        }
+    }
+
+    private final class Source extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            lock.lock();
+            try {
+                while (count == 0) {
+                    if (sinkClosed || sourceClosed)
+                        return -1;
+                    await(notEmpty);
+                }
+                int n = Math.min(len, count);
+                int first = Math.min(n, buffer.length - head);
+                System.arraycopy(buffer, head, b, off, first);
+                System.arraycopy(buffer, 0, b, off + first, n - first);
+                head = (head + n) % buffer.length;
+                count -= n;
+                notFull.signalAll();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                sourceClosed = true;
+                count = 0;
+                notFull.signalAll();
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final class Sink extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    if (sinkClosed)
+                        throw new IOException("Pipe is closed.");
+                    if (sourceClosed)
+                        throw new IOException("Pipe is broken, nothing reads from it.");
+                    if (count == buffer.length) {
+                        await(notFull);
+                        continue;
+                    }
+                    int tail = (head + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                    System.arraycopy(b, off, buffer, tail, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                sinkClosed = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -3,113 +3,235 @@ package intecmd;
 import intecmd.commands.*;
 
 
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 
 public class Cmd {
 
-    private Scanner scanner;
-    private CurrentDirectory currentDirectory = new CurrentDirectory();
+    /**
+     * Exit status of a command that failed.
+     */
+    public static final int FAILURE = CommandInterface.FAILURE;
+    /**
+     * Exit status of a command that doesn't exist, as in sh.
+     */
+    public static final int NOT_FOUND = 127;
+
+    private BufferedReader input;
+    private Tokenizer tokenizer = new Tokenizer();
+    private final Context context;
+    private final Jobs jobs = new Jobs();
+    private CommandRegistry registry = CommandRegistry.withBuiltins()
+            .register("echo", () -> new CommandInterface() {
+                @Override
+                public String help() {
+                    return "echo - prints its arguments.";
+                }
+
+                @Override
+                public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+                    out.println(echoCommand(args));
+                    return SUCCESS;
+                }
+            })
+            .register("help", () -> new CommandInterface() {
+                @Override
+                public String help() {
+                    return "help - lists the available commands.";
+                }
+
+                @Override
+                public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+                    helpCommand(out);
+                    return SUCCESS;
+                }
+            });
 
     public Cmd() {
-        scanner = new Scanner(System.in);
+        this(new Context());
+        input = new BufferedReader(new InputStreamReader(System.in));
+    }
+
+    /**
+     * A shell that runs in the given context and gets its commands through
+     * {@link #execute(String[], PrintStream)} rather than from the input.
+     */
+    public Cmd(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the commands this shell runs, more can be registered
+     */
+    public CommandRegistry registry() {
+        return registry;
     }
 
     public String[] tokenizeString(String line) {
-        line += " ";
-        ArrayList<String> tokens = new ArrayList<>();
-        boolean quoted = false;
-        StringBuilder stringBuilder = new StringBuilder();
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '\"' || c == ' ' && !quoted) {
-                if (c == '\"')
-                    quoted = !quoted;
-                if (!quoted && stringBuilder.length() > 0) {
-                    tokens.add(stringBuilder.toString());
-                    stringBuilder.delete(0, stringBuilder.length());
-                }
-            } else
-                stringBuilder.append(c);
-        }
-        return tokens.toArray(new String[tokens.size()]);
+        return tokenizer.tokenize(line);
+    }
+
+    /**
+     * Splits a line like {@link #tokenizeString(String)}, keeping track of
+     * which tokens are operators and which are quoted text.
+     */
+    CommandLine parse(String line) {
+        return CommandLine.scan(tokenizer, line);
     }
 
     public void processInput() {
         while (true) {
-            System.out.println(currentDirectory);
-            System.out.print(">> ");
-            String[] tokens = this.tokenizeString(scanner.nextLine());
-            commandSwitch(tokens);
+            jobs.reportFinished(System.out);
+            System.out.print(context.currentDirectory() + System.lineSeparator() + ">> ");
+            //the only flush of the output, everything the last command printed goes with it
+            System.out.flush();
+            String line;
+            try {
+                line = input.readLine();
+            } catch (IOException e) {
+                line = null;
+            }
+            if (line == null)
+                return;
+            commandSwitch(parse(line));
         }
     }
 
     protected void commandSwitch(String[] tokens) {
-        if(tokens.length < 1)
-        {
-            //exit gracefully when fed nil
+        commandSwitch(CommandLine.of(tokens));
+    }
+
+    void commandSwitch(CommandLine line) {
+        if (line.length() > 0 && line.tokens()[0].equals("exit")) {
+            exitCommand();
             return;
         }
-        switch (tokens[0]) {
-            case "exit":
-                exitCommand();
-                return; // return to satisfy IDE
-            case "echo":
-                System.out.println(echoCommand(tokens));
-                break;
-            case "help":
-                helpCommand();
-                break;
-            case "ls":
-                new LSCommand(tokens, currentDirectory.toString());
-                break;
-            case "cd":
-                new ChangeDirectoryCommand(tokens);
-                break;
-            case "grep":
-                new GrepCommand(tokens);
-                break;
-            case "wc":
-                WCCommand(tokens);
-                break;
-            case "cat":
-                catCommand(tokens);
-                break;
-            case "mkdir":
-                new MkdirCommand(tokens);
-                break;
-            default:
-                System.out.println("Unrecognized command");
-                break;
+        execute(line, System.out);
+    }
 
-        }
+    /**
+     * Runs a command, or commands connected by pipes. Unlike
+     * {@link #commandSwitch(String[])} exit is not a command here, what
+     * ends a session is up to the caller.
+     * <p>
+     * A command line ending in &amp; is started as a background job. The job
+     * gets a copy of the current directory, so it is not moved by a later
+     * cd, and a cd in the job doesn't move the session.
+     *
+     * <p>
+     * Every token that is exactly | or &amp; is taken as an operator, the
+     * tokens don't tell whether it was quoted. Lines split by
+     * {@link #parse(String)} keep that apart.
+     *
+     * @param out where the output goes
+     * @return the exit status, 0 if the command succeeded
+     */
+    public int execute(String[] tokens, PrintStream out) {
+        return execute(CommandLine.of(tokens), out);
     }
 
-    private void catCommand(String[] tokens) {
-        ConcatenateCommand cat = new ConcatenateCommand();
-        cat.in(tokens);
+    int execute(CommandLine line, PrintStream out) {
+        if (line.length() < 1) {
+            //exit gracefully when fed nil
+            return 0;
+        }
+        if (line.isBackground(line.length() - 1)) {
+            CommandLine command = line.range(0, line.length() - 1);
+            if (command.length() == 0) {
+                out.println("Nothing to run in the background");
+                return FAILURE;
+            }
+            Context job = new Context(CurrentDirectory.detached(context.currentDirectory().toString()), context.patternCache());
+            out.println("[" + jobs.start(String.join(" ", command.tokens()), jobOut -> execute(command, jobOut, job)) + "]");
+            return 0;
+        }
+        String[] tokens = line.tokens();
+        switch (tokens[0]) {
+            case "jobs":
+                jobs.list(out);
+                return 0;
+            case "wait":
+                try {
+                    return jobs.await(tokens, out);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FAILURE;
+                }
+            case "kill":
+                return jobs.kill(tokens, out);
+            default:
+                return execute(line, out, context);
+        }
     }
 
-    private void WCCommand(String[] tokens) {
-        WordCountCommand wc = new WordCountCommand();
-        wc.in(tokens);
+    private int execute(CommandLine line, PrintStream out, Context context) {
+        if (line.hasPipe())
+            return pipeline(line, out, context);
+        String[] tokens = line.tokens();
+        CommandInterface command = registry.get(tokens[0]);
+        if (command == null) {
+            out.println("Unrecognized command");
+            return NOT_FOUND;
+        }
         try {
-            System.out.print(wc.call());
+            return command.execute(tokens, null, out, context);
         } catch (Exception e) {
             e.printStackTrace();
+            return FAILURE;
+        }
+    }
+
+    /**
+     * Runs the commands between the pipes at the same time, each one
+     * reading what the one before it writes.
+     *
+     * @return the exit status of the last command
+     */
+    private int pipeline(CommandLine line, PrintStream output, Context context) {
+        Pipeline pipeline = new Pipeline();
+        int start = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i < line.length() && !line.isPipe(i))
+                continue;
+            String[] stage = line.range(start, i).tokens();
+            if (stage.length == 0) {
+                output.println("Empty command in pipeline");
+                return FAILURE;
+            }
+            CommandInterface command = registry.get(stage[0]);
+            if (command == null) {
+                output.println("Unrecognized command " + stage[0]);
+                return NOT_FOUND;
+            }
+            boolean first = start == 0;
+            pipeline.add(stage[0], (in, out) -> command.execute(stage, first ? null : in, out, context));
+            start = i + 1;
         }
+        return pipeline.run(new ByteArrayInputStream(new byte[0]), output);
     }
 
     public void helpCommand() {
-        System.out.println("Available commands:");
-        System.out.println("'exit' - Exits the application");
-        System.out.println("'echo' - Whatever input comes after the command gets printed back");
-        System.out.println("'ls' - Shows all directories and files in the current directory");
-        System.out.println("'grep' - Searches for matches of a string in a file or files");
-        System.out.println("'cat' - ");
-        System.out.println("'mkdir' - Creates a new directory");
-        System.out.println("'cd - Change directory'");
-        System.out.println("'wc' - Counts words");
+        helpCommand(System.out);
+    }
+
+    private void helpCommand(PrintStream out) {
+        out.println("Available commands:");
+        out.println("'exit' - Exits the application");
+        out.println("'echo' - Whatever input comes after the command gets printed back");
+        out.println("'ls' - Shows all directories and files in the current directory");
+        out.println("'grep' - Searches for matches of a string in a file or files");
+        out.println("'cat' - ");
+        out.println("'mkdir' - Creates a new directory");
+        out.println("'cd - Change directory'");
+        out.println("'wc' - Counts words");
+        out.println("'<command> &' - Runs the command in the background");
+        out.println("'jobs' - Shows the commands running in the background");
+        out.println("'wait [%n]' - Waits for all background commands, or for job n");
+        out.println("'kill %n' - Stops job n");
     }
 
     public void exitCommand() {
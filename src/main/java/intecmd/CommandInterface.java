@@ -1,6 +1,31 @@
 package intecmd;
 
+import java.io.InputStream;
+import java.io.PrintStream;
+
 public interface CommandInterface {
+	/**
+	 * Exit status of a command that succeeded.
+	 */
+	int SUCCESS = 0;
+	/**
+	 * Exit status of a command that failed. The command has already
+	 * printed why.
+	 */
+	int FAILURE = 1;
+
 	String help();
 
+	/**
+	 * Runs the command. Instances are kept in a {@link CommandRegistry} and
+	 * run again and again, possibly by several threads at once, so nothing
+	 * of a single run may be kept in the instance.
+	 *
+	 * @param args the name of the command followed by its arguments
+	 * @param in   the output of the command before this one in a pipeline, or null
+	 * @param out  where the command writes, it is not closed by the command
+	 * @param ctx  the session the command runs in
+	 * @return the exit status, {@link #SUCCESS} or a positive number if the command failed
+	 */
+	int execute(String[] args, InputStream in, PrintStream out, Context ctx) throws Exception;
 }
@@ -0,0 +1,78 @@
+package intecmd;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of one command line, and which of them are operators.
+ * <p>
+ * A {@code |} or {@code &} that was quoted on the line is an ordinary
+ * argument, so {@code grep "|" a.txt} searches for a pipe. Only a line
+ * split by the {@link Tokenizer} knows about quotes, tokens that are
+ * handed over as an array count as operators whenever they are
+ * exactly {@code |} or {@code &}.
+ */
+final class CommandLine {
+
+    private final String[] tokens;
+    private final char[] operators;
+
+    private CommandLine(String[] tokens, char[] operators) {
+        this.tokens = tokens;
+        this.operators = operators;
+    }
+
+    /**
+     * Splits a line with the tokenizer.
+     */
+    static CommandLine scan(Tokenizer tokenizer, CharSequence line) {
+        int count = tokenizer.scan(line);
+        String[] tokens = new String[count];
+        char[] operators = new char[count];
+        for (int i = 0; i < count; i++) {
+            tokens[i] = tokenizer.token(i);
+            if (tokenizer.isPipe(i))
+                operators[i] = '|';
+            else if (tokenizer.isBackground(i))
+                operators[i] = '&';
+        }
+        return new CommandLine(tokens, operators);
+    }
+
+    static CommandLine of(String[] tokens) {
+        char[] operators = new char[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            if (tokens[i].equals("|") || tokens[i].equals("&"))
+                operators[i] = tokens[i].charAt(0);
+        return new CommandLine(tokens, operators);
+    }
+
+    String[] tokens() {
+        return tokens;
+    }
+
+    int length() {
+        return tokens.length;
+    }
+
+    boolean isPipe(int index) {
+        return operators[index] == '|';
+    }
+
+    boolean isBackground(int index) {
+        return operators[index] == '&';
+    }
+
+    boolean hasPipe() {
+        for (char operator : operators)
+            if (operator == '|')
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the tokens [from, to)
+     */
+    CommandLine range(int from, int to) {
+        return new CommandLine(Arrays.copyOfRange(tokens, from, to), Arrays.copyOfRange(operators, from, to));
+    }
+}
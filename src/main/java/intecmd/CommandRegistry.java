@@ -0,0 +1,69 @@
+package intecmd;
+
+import intecmd.commands.ChangeDirectoryCommand;
+import intecmd.commands.ConcatenateCommand;
+import intecmd.commands.GrepCommand;
+import intecmd.commands.LSCommand;
+import intecmd.commands.MkdirCommand;
+import intecmd.commands.WordCountCommand;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Finds commands by name.
+ * <p>
+ * A command is created the first time it is asked for and the same
+ * instance is handed out from then on, see
+ * {@link CommandInterface#execute}. Lookups may happen from any thread.
+ */
+public final class CommandRegistry {
+
+    private final Map<String, Supplier<? extends CommandInterface>> factories = new ConcurrentHashMap<>();
+    private final Map<String, CommandInterface> instances = new ConcurrentHashMap<>();
+
+    /**
+     * @return a registry with the commands of the intecmd.commands package
+     */
+    public static CommandRegistry withBuiltins() {
+        return new CommandRegistry()
+                .register("ls", LSCommand::new)
+                .register("cd", () -> new ChangeDirectoryCommand(new CurrentDirectory()))
+                .register("grep", GrepCommand::new)
+                .register("wc", WordCountCommand::new)
+                .register("cat", ConcatenateCommand::new)
+                .register("mkdir", MkdirCommand::new);
+    }
+
+    /**
+     * Adds a command, or replaces the one with the same name.
+     *
+     * @param factory creates the instance, called at most once per registration
+     */
+    public CommandRegistry register(String name, Supplier<? extends CommandInterface> factory) {
+        factories.put(name, factory);
+        instances.remove(name);
+        return this;
+    }
+
+    /**
+     * @return the command, or null if there is none with that name
+     */
+    public CommandInterface get(String name) {
+        Supplier<? extends CommandInterface> factory = factories.get(name);
+        if (factory == null)
+            return null;
+        return instances.computeIfAbsent(name, n -> factory.get());
+    }
+
+    /**
+     * @return the names of all commands, sorted
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(new TreeSet<>(factories.keySet()));
+    }
+}
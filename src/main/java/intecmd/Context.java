@@ -0,0 +1,32 @@
+package intecmd;
+
+import intecmd.commands.PatternCache;
+
+/**
+ * The state a command runs in, shared by all commands of one session.
+ */
+public class Context {
+
+    private final CurrentDirectory currentDirectory;
+    private final PatternCache patternCache;
+
+    public Context() {
+        this(new CurrentDirectory(), new PatternCache());
+    }
+
+    public Context(CurrentDirectory currentDirectory, PatternCache patternCache) {
+        this.currentDirectory = currentDirectory;
+        this.patternCache = patternCache;
+    }
+
+    public CurrentDirectory currentDirectory() {
+        return currentDirectory;
+    }
+
+    /**
+     * @return the compiled regular expressions of the session
+     */
+    public PatternCache patternCache() {
+        return patternCache;
+    }
+}
@@ -1,14 +1,39 @@
 package intecmd;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 public class CurrentDirectory {
 
     public static final String SEPARATOR = System.getProperty("file.separator");
     private static final String USER_SYSTEM = System.getProperty("os.name");
-    private static String currentDirectory = System.getProperty("user.dir");
+    private static final AtomicReference<String> PROCESS_DIRECTORY = new AtomicReference<>(System.getProperty("user.dir"));
+
+    private final AtomicReference<String> currentDirectory;
+
+    /**
+     * The directory of the process, shared by every instance made this way.
+     */
+    public CurrentDirectory() {
+        this.currentDirectory = PROCESS_DIRECTORY;
+    }
+
+    private CurrentDirectory(String path) {
+        verifyPath(path);
+        this.currentDirectory = new AtomicReference<>(path);
+    }
+
+    /**
+     * A directory of its own, for a session that must not move the others.
+     *
+     * @param path where the session starts
+     */
+    public static CurrentDirectory detached(String path) {
+        return new CurrentDirectory(path);
+    }
 
     public void setCurrentDirectory(String path) {
         verifyPath(path);
-        currentDirectory = path;
+        currentDirectory.set(path);
     }
 
     private void verifyPath(String path) {
@@ -21,6 +46,6 @@ public class CurrentDirectory {
     }
 
     public String toString() {
-        return currentDirectory;
+        return currentDirectory.get();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,241 @@
+package intecmd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * The commands of a session that run in the background.
+ * <p>
+ * A job writes into a buffer of its own, which is printed once the job
+ * is reported as done: before the next prompt, by jobs, or by wait. The
+ * buffer keeps the first {@link #OUTPUT_LIMIT} bytes, what a job writes
+ * after that is dropped and only counted, so a job that nobody waits for
+ * can't fill the memory of the server.
+ * Killing a job interrupts its thread, the commands stop reading at the
+ * next block and the job is forgotten together with its output.
+ */
+final class Jobs {
+
+    /**
+     * Bytes of output kept for each job.
+     */
+    static final int OUTPUT_LIMIT = 1024 * 1024;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "job-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Integer, Job> jobs = new TreeMap<>();
+    private final int outputLimit;
+    private int next = 1;
+
+    Jobs() {
+        this(OUTPUT_LIMIT);
+    }
+
+    /**
+     * @param outputLimit bytes of output kept for each job
+     */
+    Jobs(int outputLimit) {
+        this.outputLimit = outputLimit;
+    }
+
+    /**
+     * @param command runs the job with the stream it writes to and returns its exit status
+     * @return the number of the job
+     */
+    synchronized int start(String line, Function<PrintStream, Integer> command) {
+        int id = next++;
+        JobOutput output = new JobOutput(outputLimit);
+        PrintStream out = new PrintStream(output, false);
+        Future<Integer> future = executor.submit(() -> {
+            try {
+                return command.apply(out);
+            } finally {
+                out.flush();
+            }
+        });
+        jobs.put(id, new Job(id, line, output, future));
+        return id;
+    }
+
+    /**
+     * Prints the state of every job, the finished ones for the last time.
+     */
+    void list(PrintStream out) {
+        for (Job job : snapshot()) {
+            if (job.future.isDone())
+                report(job, out);
+            else
+                out.println(job.describe("Running"));
+        }
+    }
+
+    /**
+     * Prints the jobs that are done since they were last looked at.
+     */
+    void reportFinished(PrintStream out) {
+        for (Job job : snapshot())
+            if (job.future.isDone())
+                report(job, out);
+    }
+
+    /**
+     * Waits for one job, or for all of them.
+     *
+     * @param args wait, optionally followed by %n
+     * @return the exit status of the job, 0 when waiting for all
+     */
+    int await(String[] args, PrintStream out) throws InterruptedException {
+        if (args.length < 2) {
+            for (Job job : snapshot()) {
+                waitFor(job);
+                report(job, out);
+            }
+            return 0;
+        }
+        Job job = find(args, out);
+        if (job == null)
+            return Cmd.NOT_FOUND;
+        waitFor(job);
+        return report(job, out);
+    }
+
+    /**
+     * @param args kill followed by %n
+     */
+    int kill(String[] args, PrintStream out) {
+        Job job = find(args, out);
+        if (job == null)
+            return Cmd.FAILURE;
+        job.future.cancel(true);
+        remove(job);
+        out.println(job.describe("Killed"));
+        return 0;
+    }
+
+    private Job find(String[] args, PrintStream out) {
+        String spec = args.length > 1 ? args[1] : "";
+        Job job = null;
+        if (spec.startsWith("%")) {
+            try {
+                synchronized (this) {
+                    job = jobs.get(Integer.parseInt(spec.substring(1)));
+                }
+            } catch (NumberFormatException e) {
+                //not a job number
+            }
+        }
+        if (job == null)
+            out.println(args[0] + ": " + (spec.isEmpty() ? "a job is needed, like %1" : spec + ": no such job"));
+        return job;
+    }
+
+    private static void waitFor(Job job) throws InterruptedException {
+        try {
+            job.future.get();
+        } catch (ExecutionException | CancellationException e) {
+            //reported with the job
+        }
+    }
+
+    /**
+     * Prints a finished job and its output, and forgets it.
+     *
+     * @return the exit status of the job
+     */
+    private int report(Job job, PrintStream out) {
+        if (!remove(job))
+            return 0;
+        int status;
+        try {
+            status = job.future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            status = Cmd.FAILURE;
+        } catch (CancellationException | InterruptedException e) {
+            status = Cmd.FAILURE;
+        }
+        out.println(job.describe(status == 0 ? "Done" : "Exit " + status));
+        byte[] output = job.output.toByteArray();
+        out.write(output, 0, output.length);
+        long dropped = job.output.dropped();
+        if (dropped > 0) {
+            if (output[output.length - 1] != '\n')
+                out.println();
+            out.println("[" + job.id + "] " + dropped + " more bytes of output were dropped");
+        }
+        return status;
+    }
+
+    private synchronized boolean remove(Job job) {
+        return jobs.remove(job.id, job);
+    }
+
+    private synchronized List<Job> snapshot() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    private static final class Job {
+        final int id;
+        final String line;
+        final JobOutput output;
+        final Future<Integer> future;
+
+        Job(int id, String line, JobOutput output, Future<Integer> future) {
+            this.id = id;
+            this.line = line;
+            this.output = output;
+            this.future = future;
+        }
+
+        String describe(String state) {
+            return "[" + id + "] " + state + " " + line;
+        }
+    }
+
+    /**
+     * Keeps the first bytes written to it and counts the rest.
+     */
+    private static final class JobOutput extends ByteArrayOutputStream {
+        private final int limit;
+        private long dropped;
+
+        JobOutput(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count < limit)
+                super.write(b);
+            else
+                dropped++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int kept = Math.max(0, Math.min(len, limit - count));
+            super.write(b, off, kept);
+            dropped += len - kept;
+        }
+
+        synchronized long dropped() {
+            return dropped;
+        }
+    }
+}
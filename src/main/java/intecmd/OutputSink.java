@@ -0,0 +1,123 @@
+package intecmd;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * The output of a session, collected in large writes.
+ * <p>
+ * Commands print line by line, often one call per entry. Through the sink
+ * those prints only fill a buffer, which is written out when it is full
+ * or when the sink is flushed, so a listing costs a few writes instead of
+ * one per line. The shell flushes once every time the prompt is shown.
+ * <p>
+ * With a writer thread the full buffers are handed to a {@link BoundedPipe}
+ * and written by that thread, so a command is not held up by a slow
+ * terminal until the pipe is full. A flush still waits until everything
+ * before it has been written.
+ */
+public final class OutputSink extends OutputStream {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream target;
+    private final OutputStream pipe;
+    private final Object progress = new Object();
+    private long written;
+    private long flushed;
+    private IOException failure;
+
+    private OutputSink(OutputStream target, BoundedPipe pipe) {
+        this.target = target;
+        this.pipe = pipe.sink();
+        Thread writer = new Thread(() -> drain(pipe.source()), "output-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param target where the output goes
+     * @param async  whether the output is written by a thread of its own
+     * @return a stream that only writes to the target when its buffer is full or it is flushed
+     */
+    public static PrintStream open(OutputStream target, boolean async) {
+        OutputStream out = async ? new OutputSink(target, new BoundedPipe(4 * BUFFER_SIZE)) : target;
+        return new PrintStream(new BufferedOutputStream(out, BUFFER_SIZE), false);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        synchronized (progress) {
+            if (failure != null)
+                throw failure;
+            written += len;
+        }
+        pipe.write(b, off, len);
+    }
+
+    /**
+     * Waits until everything written so far has reached the target.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (progress) {
+            long until = written;
+            while (flushed < until && failure == null) {
+                try {
+                    progress.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Flushing the output was interrupted.");
+                }
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        pipe.close();
+    }
+
+    private void drain(InputStream source) {
+        byte[] chunk = new byte[BUFFER_SIZE];
+        long delivered = 0;
+        try {
+            int n;
+            while ((n = source.read(chunk)) != -1) {
+                target.write(chunk, 0, n);
+                delivered += n;
+                //more is on its way, it gets flushed with the next chunk
+                if (source.available() > 0)
+                    continue;
+                target.flush();
+                synchronized (progress) {
+                    flushed = delivered;
+                    progress.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (progress) {
+                failure = e;
+                progress.notifyAll();
+            }
+            try {
+                //writers must not block on a pipe nobody drains
+                source.close();
+            } catch (IOException ignored) {
+                //a pipe can always be closed
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package intecmd;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs commands connected by pipes, like a | b | c.
+ * <p>
+ * Every stage runs on its own thread and the stages are connected by
+ * {@link BoundedPipe}s, so all of them work at the same time and the
+ * memory used does not depend on how much data flows through. When a
+ * stage is done its input is closed and the stages before it are
+ * interrupted, there is no one left to read what they would write.
+ */
+final class Pipeline {
+
+    /**
+     * One command of a pipeline.
+     */
+    interface Stage {
+        /**
+         * @param in  the output of the stage before, or the input of the pipeline
+         * @param out where the output goes, never closed by the stage
+         * @return the exit status of the stage
+         */
+        int run(InputStream in, PrintStream out) throws Exception;
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    Pipeline add(String name, Stage stage) {
+        names.add(name);
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Runs all stages and returns once the last one is done.
+     *
+     * @return the exit status of the last stage, as in sh
+     */
+    int run(InputStream in, PrintStream out) {
+        int n = stages.size();
+        Thread[] threads = new Thread[n];
+        int[] status = new int[1];
+        InputStream input = in;
+        for (int i = 0; i < n; i++) {
+            BoundedPipe pipe = i < n - 1 ? new BoundedPipe() : null;
+            PrintStream output = pipe != null ? new PrintStream(new BufferedOutputStream(pipe.sink()), false) : out;
+            threads[i] = new Thread(stageRunner(threads, i, input, output, status), "pipeline-" + names.get(i));
+            threads[i].setDaemon(true);
+            input = pipe != null ? pipe.source() : null;
+        }
+        for (Thread thread : threads)
+            thread.start();
+        try {
+            threads[n - 1].join();
+        } catch (InterruptedException e) {
+            threads[n - 1].interrupt();
+            Thread.currentThread().interrupt();
+        }
+        for (Thread thread : threads)
+            thread.interrupt();
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        out.flush();
+        return status[0];
+    }
+
+    /**
+     * @param status set by the last stage, read once its thread is joined
+     */
+    private Runnable stageRunner(Thread[] threads, int i, InputStream input, PrintStream output, int[] status) {
+        boolean last = i == threads.length - 1;
+        return () -> {
+            try {
+                int result = stages.get(i).run(input, output);
+                if (last)
+                    status[0] = result;
+            } catch (InterruptedIOException | InterruptedException e) {
+                //a later stage is done
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (last)
+                    status[0] = Cmd.FAILURE;
+            } finally {
+                if (last)
+                    output.flush();
+                else
+                    output.close();
+                if (i > 0) {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        //a pipe can always be closed
+                    }
+                    threads[i - 1].interrupt();
+                }
+            }
+        };
+    }
+}
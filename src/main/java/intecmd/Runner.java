@@ -1,9 +1,139 @@
 package intecmd;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Starts the shell.
+ * <pre>
+ * Runner [--async-output]                        interactive
+ * Runner [--parallel N] -c "command"             runs the command
+ * Runner [--parallel N] script-file              runs the lines of the file, - reads them from the input
+ * Runner --server PORT                           serves sessions on the loopback address, see {@link Server}
+ * </pre>
+ * Without a prompt the process ends with the status of the commands,
+ * see {@link Script}.
+ */
 public class Runner {
 
+    /**
+     * Exit status for arguments that make no sense.
+     */
+    static final int USAGE = 2;
+
+    private static final String USAGE_TEXT = "Usage: Runner [--async-output] [--parallel N] [-c command | script-file | --server PORT]";
+
     public static void main(String[] args) {
+        StandardOutput.install();
+        System.exit(run(args, System.in, System.err));
+    }
+
+    /**
+     * @return the exit status, 0 once an interactive session reached the end of its input
+     */
+    static int run(String[] args, InputStream in, PrintStream err) {
+        boolean async = false;
+        int parallelism = 1;
+        String command = null;
+        String script = null;
+        int port = -1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--async-output":
+                    async = true;
+                    break;
+                case "--parallel":
+                    parallelism = i + 1 < args.length ? parseParallelism(args[++i]) : 0;
+                    if (parallelism < 1) {
+                        err.println("--parallel needs a number of threads. " + USAGE_TEXT);
+                        return USAGE;
+                    }
+                    break;
+                case "--server":
+                    port = i + 1 < args.length ? parsePort(args[++i]) : -1;
+                    if (port < 0) {
+                        err.println("--server needs a port. " + USAGE_TEXT);
+                        return USAGE;
+                    }
+                    break;
+                case "-c":
+                    if (i + 1 == args.length) {
+                        err.println("-c needs a command. " + USAGE_TEXT);
+                        return USAGE;
+                    }
+                    command = args[++i];
+                    break;
+                default:
+                    if (script != null || args[i].startsWith("--")) {
+                        err.println("Unexpected argument " + args[i] + ". " + USAGE_TEXT);
+                        return USAGE;
+                    }
+                    script = args[i];
+            }
+        }
+        if ((command != null ? 1 : 0) + (script != null ? 1 : 0) + (port >= 0 ? 1 : 0) > 1) {
+            err.println("Only one of -c, a script file and --server. " + USAGE_TEXT);
+            return USAGE;
+        }
+        if (port >= 0)
+            return serve(port, err);
+        StandardOutput.buffer(async);
         Cmd cmd = new Cmd();
-        cmd.processInput();
+        if (command == null && script == null) {
+            cmd.processInput();
+            System.out.flush();
+            return 0;
+        }
+        try (BufferedReader lines = open(command, script, in)) {
+            return new Script(cmd, parallelism).run(lines, System.out);
+        } catch (IOException e) {
+            err.println("Could not read " + script + ": " + e.getMessage());
+            return Cmd.FAILURE;
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    private static BufferedReader open(String command, String script, InputStream in) throws IOException {
+        if (command != null)
+            return new BufferedReader(new StringReader(command));
+        if (script.equals("-"))
+            return new BufferedReader(new InputStreamReader(in), 64 * 1024);
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(script)), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private static int serve(int port, PrintStream err) {
+        try (Server server = Server.open(port)) {
+            err.println("Listening on port " + server.port() + ", clients send the token in " + server.tokenFile() + " first");
+            server.serve();
+            return 0;
+        } catch (IOException e) {
+            err.println("Could not serve on port " + port + ": " + e.getMessage());
+            return Cmd.FAILURE;
+        }
+    }
+
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            return port <= 65535 ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int parseParallelism(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 }
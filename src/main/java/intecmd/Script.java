@@ -0,0 +1,147 @@
+package intecmd;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs command lines one after the other, without a prompt.
+ * <p>
+ * Empty lines and lines starting with {@code #} are skipped. {@code exit}
+ * ends the script, {@code exit N} with status N &amp; 255 as in sh.
+ * Otherwise the status of the script is 0 if every line succeeded, or the
+ * status of the first line that failed.
+ * <p>
+ * With a parallelism above 1 the lines are taken as independent of each
+ * other and run on that many threads. The output of every line is
+ * collected and printed in the order of the lines, so it looks the same
+ * as when they run one by one. A cd affects the lines running beside it,
+ * which is why scripts that change directories should run sequentially.
+ */
+final class Script {
+
+    private final Cmd cmd;
+    private final int parallelism;
+
+    Script(Cmd cmd, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        this.cmd = cmd;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the exit status of the script
+     */
+    int run(BufferedReader lines, PrintStream out) throws IOException {
+        return parallelism == 1 ? runSequentially(lines, out) : runInParallel(lines, out);
+    }
+
+    private int runSequentially(BufferedReader lines, PrintStream out) throws IOException {
+        int status = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            CommandLine parsed = cmd.parse(line);
+            String[] tokens = parsed.tokens();
+            if (skip(tokens))
+                continue;
+            if (tokens[0].equals("exit"))
+                return exitStatus(tokens, status, out);
+            int result = cmd.execute(parsed, out);
+            if (status == 0)
+                status = result;
+            //about to wait for the next line, like an interactive shell flushes at the prompt
+            if (!lines.ready())
+                out.flush();
+        }
+        return status;
+    }
+
+    private int runInParallel(BufferedReader lines, PrintStream out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "script");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //lines waiting to be printed, at most a few per thread are read ahead
+        Deque<Future<Output>> running = new ArrayDeque<>();
+        int[] status = {0};
+        try {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                CommandLine parsed = cmd.parse(line);
+                String[] tokens = parsed.tokens();
+                if (skip(tokens))
+                    continue;
+                if (tokens[0].equals("exit")) {
+                    while (!running.isEmpty())
+                        print(running.poll(), out, status);
+                    return exitStatus(tokens, status[0], out);
+                }
+                running.add(executor.submit(() -> {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream lineOut = new PrintStream(buffer, false);
+                    int result = cmd.execute(parsed, lineOut);
+                    lineOut.flush();
+                    return new Output(buffer, result);
+                }));
+                if (running.size() >= 4 * parallelism)
+                    print(running.poll(), out, status);
+            }
+            while (!running.isEmpty())
+                print(running.poll(), out, status);
+            return status[0];
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void print(Future<Output> future, PrintStream out, int[] status) throws IOException {
+        Output output;
+        try {
+            output = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Script was interrupted.", e);
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            output = new Output(new ByteArrayOutputStream(), Cmd.FAILURE);
+        }
+        output.buffer.writeTo(out);
+        if (status[0] == 0)
+            status[0] = output.status;
+    }
+
+    private static boolean skip(String[] tokens) {
+        return tokens.length == 0 || tokens[0].startsWith("#");
+    }
+
+    private static int exitStatus(String[] tokens, int status, PrintStream out) {
+        if (tokens.length < 2)
+            return status;
+        try {
+            //only the low byte reaches the parent, as in sh
+            return Integer.parseInt(tokens[1]) & 0xFF;
+        } catch (NumberFormatException e) {
+            out.println("exit: numeric argument required");
+            return 2;
+        }
+    }
+
+    private static final class Output {
+        final ByteArrayOutputStream buffer;
+        final int status;
+
+        Output(ByteArrayOutputStream buffer, int status) {
+            this.buffer = buffer;
+            this.status = status;
+        }
+    }
+}
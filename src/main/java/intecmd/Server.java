@@ -0,0 +1,201 @@
+package intecmd;
+
+import intecmd.commands.PatternCache;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves shell sessions over TCP, so one warmed up JVM can run the
+ * commands of many clients.
+ * <p>
+ * The server only listens on the loopback address, but every local user
+ * can connect to that, and a session runs commands with the rights of the
+ * user running the server. So a client has to prove that it may read the
+ * server's files: the server writes a random token into a file only its
+ * user can read, and the first line a client sends has to be that token.
+ * Otherwise the connection is closed before a command is run. The token
+ * file is removed when the server is closed.
+ * <p>
+ * After the token every line is a command: the client gets the output
+ * back, the same as from a script (see {@link Script}), and the session
+ * ends with exit or when the client closes its side. A session starts in the directory of
+ * the server and has a directory of its own from then on, a cd in one
+ * session doesn't move the others. Compiled patterns are shared.
+ * <p>
+ * Sessions run on virtual threads when the JDK has them, else on
+ * ordinary daemon threads.
+ */
+public final class Server implements Closeable {
+
+    /**
+     * How long a client may take to send the token.
+     */
+    static final int TOKEN_TIMEOUT = 10000;
+
+    private final ServerSocket socket;
+    private final String token;
+    private final Path tokenFile;
+    private final PatternCache patternCache = new PatternCache();
+    private final ThreadFactory threads = sessionThreads();
+    private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();
+
+    private Server(ServerSocket socket, String token, Path tokenFile) {
+        this.socket = socket;
+        this.token = token;
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * Writes the token into the .intecmd directory in the home of the user.
+     *
+     * @param port the port to listen on, 0 for any free one
+     */
+    public static Server open(int port) throws IOException {
+        return open(port, Paths.get(System.getProperty("user.home"), ".intecmd"));
+    }
+
+    /**
+     * @param port           the port to listen on, 0 for any free one
+     * @param tokenDirectory where the token file is written, created if it's missing
+     */
+    public static Server open(int port, Path tokenDirectory) throws IOException {
+        ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            StringBuilder token = new StringBuilder();
+            for (byte b : random)
+                token.append(String.format("%02x", b));
+            Path tokenFile = tokenDirectory.resolve("server-" + socket.getLocalPort() + ".token");
+            writePrivately(tokenDirectory, tokenFile, token.toString());
+            return new Server(socket, token.toString(), tokenFile);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the file readable and writable by its owner only, on file
+     * systems without POSIX permissions as far as {@link File} allows.
+     */
+    private static void writePrivately(Path directory, Path file, String text) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (posix)
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        else
+            Files.createDirectories(directory);
+        Files.deleteIfExists(file);
+        if (posix) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            File created = Files.createFile(file).toFile();
+            created.setReadable(false, false);
+            created.setWritable(false, false);
+            created.setReadable(true, true);
+            created.setWritable(true, true);
+        }
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public int port() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return the file a client reads the token from
+     */
+    public Path tokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * Accepts sessions until the server is closed.
+     */
+    public void serve() throws IOException {
+        while (true) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (SocketException e) {
+                if (socket.isClosed())
+                    return;
+                throw e;
+            }
+            sessions.add(client);
+            threads.newThread(() -> session(client)).start();
+        }
+    }
+
+    private void session(Socket client) {
+        try (Socket session = client;
+             BufferedReader lines = new BufferedReader(new InputStreamReader(session.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(session.getOutputStream()), false, "UTF-8")) {
+            session.setSoTimeout(TOKEN_TIMEOUT);
+            String presented = lines.readLine();
+            if (presented == null || !MessageDigest.isEqual(presented.getBytes(StandardCharsets.UTF_8),
+                    token.getBytes(StandardCharsets.UTF_8))) {
+                out.println("Not authorized");
+                return;
+            }
+            session.setSoTimeout(0);
+            Context context = new Context(CurrentDirectory.detached(new CurrentDirectory().toString()), patternCache);
+            new Script(new Cmd(context), 1).run(lines, out);
+        } catch (IOException e) {
+            //the client went away
+        } finally {
+            sessions.remove(client);
+        }
+    }
+
+    /**
+     * Stops accepting sessions, ends the running ones and removes the token file.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for (Socket session : sessions)
+            session.close();
+        Files.deleteIfExists(tokenFile);
+    }
+
+    /**
+     * Thread.ofVirtual() is looked up at runtime, the code is compiled for
+     * JDKs that don't have it.
+     */
+    private static ThreadFactory sessionThreads() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "session-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return runnable -> {
+                Thread thread = new Thread(runnable, "session");
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
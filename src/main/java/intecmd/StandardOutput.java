@@ -0,0 +1,77 @@
+package intecmd;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Direct access to the file descriptor behind {@link System#out}.
+ * <p>
+ * Commands that copy whole files can hand the bytes to the channel of the
+ * standard output instead of pushing them through the synchronized
+ * {@link PrintStream}. That is only safe as long as System.out still is the
+ * stream that was installed, anything that replaced it (like a test
+ * capturing the output) gets no channel and keeps the plain stream.
+ */
+public final class StandardOutput {
+
+    private static PrintStream installed;
+    private static FileChannel channel;
+    private static boolean terminal;
+
+    private StandardOutput() {
+    }
+
+    /**
+     * Remembers the current System.out as the process standard output.
+     * The channel is never closed, closing it would close the descriptor.
+     */
+    public static void install() {
+        install(System.out, new FileOutputStream(FileDescriptor.out).getChannel(), System.console() != null);
+    }
+
+    /**
+     * @param out      the stream writing to the channel
+     * @param channel  where the bytes of the stream end up, may be null
+     * @param terminal whether the channel is a terminal
+     */
+    public static synchronized void install(PrintStream out, FileChannel channel, boolean terminal) {
+        StandardOutput.installed = out;
+        StandardOutput.channel = channel;
+        StandardOutput.terminal = terminal;
+    }
+
+    /**
+     * Replaces System.out with an {@link OutputSink} over the installed
+     * stream. The channel stays available, System.out is flushed before
+     * it is handed out.
+     *
+     * @param async whether the output is written by a thread of its own
+     */
+    public static synchronized void buffer(boolean async) {
+        PrintStream sink = OutputSink.open(installed != null ? installed : System.out, async);
+        System.setOut(sink);
+        installed = sink;
+    }
+
+    /**
+     * Flushes System.out, so bytes written to the channel come after
+     * everything printed before.
+     *
+     * @return the channel of System.out, or null if System.out has been replaced
+     */
+    public static synchronized FileChannel channel() {
+        if (channel == null || System.out != installed)
+            return null;
+        System.out.flush();
+        return channel;
+    }
+
+    /**
+     * @return true if the installed output is a terminal rather than a file or pipe
+     */
+    public static synchronized boolean isTerminal() {
+        return terminal;
+    }
+}
@@ -0,0 +1,174 @@
+package intecmd;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits a command line into tokens.
+ * <p>
+ * Tokens are separated by spaces and tabs. A {@code |} or {@code &}
+ * outside quotes is a token of its own. Double quotes keep spaces in a
+ * token, inside them a backslash only escapes {@code "} and {@code \}.
+ * Single quotes keep everything up to the next single quote as it is.
+ * Outside quotes a backslash escapes a space, a tab, a quote, {@code |},
+ * {@code &} or another backslash. Before any other character it is kept
+ * as it is, so {@code C:\Users\me} stays a Windows path. Quoted parts
+ * join the text around them, {@code a"b c"d} is the single token
+ * {@code ab cd}.
+ * <p>
+ * The line is scanned once and the text of the tokens is written into a
+ * buffer that is reused by the next line, so {@link #scan(CharSequence)}
+ * allocates nothing once the buffers are large enough. Strings are only
+ * made when asked for. A tokenizer is meant for one thread.
+ */
+public final class Tokenizer {
+
+    private char[] text = new char[256];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private char[] operators = new char[16];
+    private int count;
+
+    /**
+     * @return the tokens of the line
+     */
+    public String[] tokenize(CharSequence line) {
+        scan(line);
+        String[] tokens = new String[count];
+        for (int i = 0; i < count; i++)
+            tokens[i] = token(i);
+        return tokens;
+    }
+
+    /**
+     * Splits the line, the tokens stay available until the next scan.
+     *
+     * @return the number of tokens
+     */
+    public int scan(CharSequence line) {
+        int length = line.length();
+        if (text.length < length)
+            text = new char[Math.max(length, text.length * 2)];
+        count = 0;
+        int size = 0;
+        int start = -1;
+        char quote = 0;
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'')
+                    quote = 0;
+                else
+                    text[size++] = c;
+            } else if (quote == '"') {
+                if (c == '"')
+                    quote = 0;
+                else if (c == '\\' && i + 1 < length && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\'))
+                    text[size++] = line.charAt(++i);
+                else
+                    text[size++] = c;
+            } else if (c == ' ' || c == '\t') {
+                if (start != -1) {
+                    add(start, size, (char) 0);
+                    start = -1;
+                }
+            } else if (c == '|' || c == '&') {
+                if (start != -1) {
+                    add(start, size, (char) 0);
+                    start = -1;
+                }
+                text[size++] = c;
+                add(size - 1, size, c);
+            } else {
+                if (start == -1)
+                    start = size;
+                if (c == '"' || c == '\'')
+                    quote = c;
+                else if (c == '\\' && i + 1 < length && isEscapable(line.charAt(i + 1)))
+                    text[size++] = line.charAt(++i);
+                else
+                    text[size++] = c;
+            }
+        }
+        if (start != -1)
+            add(start, size, (char) 0);
+        return count;
+    }
+
+    /**
+     * @return whether the character means something on a line when it isn't escaped
+     */
+    private static boolean isEscapable(char c) {
+        return c == ' ' || c == '\t' || c == '"' || c == '\'' || c == '|' || c == '&' || c == '\\';
+    }
+
+    /**
+     * @param operator the operator the token is, 0 for text
+     */
+    private void add(int start, int end, char operator) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            operators = Arrays.copyOf(operators, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        operators[count] = operator;
+        count++;
+    }
+
+    /**
+     * @return the number of tokens of the last scan
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return the text of a token, valid until the next scan
+     */
+    public CharSequence slice(int index) {
+        checkIndex(index);
+        return CharBuffer.wrap(text, starts[index], ends[index] - starts[index]);
+    }
+
+    public String token(int index) {
+        checkIndex(index);
+        return new String(text, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * Compares a token without making a string of it.
+     */
+    public boolean tokenEquals(int index, String value) {
+        checkIndex(index);
+        int start = starts[index];
+        if (ends[index] - start != value.length())
+            return false;
+        for (int i = 0; i < value.length(); i++)
+            if (text[start + i] != value.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return true if the token is an unquoted |, a quoted one is plain text
+     */
+    public boolean isPipe(int index) {
+        checkIndex(index);
+        return operators[index] == '|';
+    }
+
+    /**
+     * @return true if the token is an unquoted &amp;, a quoted one is plain text
+     */
+    public boolean isBackground(int index) {
+        checkIndex(index);
+        return operators[index] == '&';
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Token " + index + " of " + count);
+    }
+}
@@ -1,12 +1,15 @@
 package intecmd.commands;
 
+import intecmd.CommandInterface;
+import intecmd.Context;
 import intecmd.CurrentDirectory;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Locale;
 
-public final class ChangeDirectoryCommand {
+public final class ChangeDirectoryCommand implements CommandInterface {
 
     private final static String CMD_PATTERN_PARENT_DIRECTORY = "..";
     private final static String PATTERN_ROOT_WINDOWS = "[a-zA-Z]{1}:\\\\{0,1}+";
@@ -18,6 +21,37 @@ public final class ChangeDirectoryCommand {
     private CurrentDirectory currentDirectory = new CurrentDirectory();
 
     public ChangeDirectoryCommand(String[] data) {
+        change(data, System.out);
+    }
+
+    /**
+     * A cd on the given directory that waits for {@link #execute}
+     * instead of changing it right away.
+     */
+    public ChangeDirectoryCommand(CurrentDirectory currentDirectory) {
+        this.currentDirectory = currentDirectory;
+    }
+
+    /**
+     * Changes the directory of the session.
+     */
+    @Override
+    public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+        return new ChangeDirectoryCommand(ctx.currentDirectory()).change(args, out);
+    }
+
+    @Override
+    public String help() {
+        return "cd - change directory.\n" +
+                "cd <directory>\tMoves into the directory.\n" +
+                "cd ..\t\tMoves up one directory.\n" +
+                "cd ~\t\tMoves to the home directory.";
+    }
+
+    /**
+     * @return the exit status
+     */
+    private int change(String[] data, PrintStream out) {
         try {
             switch (data.length) {
                 case 1:
@@ -30,8 +64,10 @@ public final class ChangeDirectoryCommand {
                     moveDown(data);
                     break;
             }
+            return SUCCESS;
         } catch (Exception e) {
-            System.out.println(e.getMessage());
+            out.println(e.getMessage());
+            return FAILURE;
         }
     }
 
@@ -117,11 +153,7 @@ public final class ChangeDirectoryCommand {
     }
 
     private boolean directoryExists(String directory) {
-        ArrayList<File> files = new LSCommand(currentDirectory.toString()).getDirectories();
-        for (File file : files)
-            if (file.getName().equals(directory))
-                return true;
-        return false;
+        return DirectoryCache.shared().containsDirectory(new File(currentDirectory.toString()), directory);
     }
 
     void changeRoot(String root) {
@@ -7,34 +7,88 @@
  * <p>
  * Accepts flag '-u' for unbuffered
  * processing. Preserves bytes.
+ * <p>
+ * Accepts flag '-f' to keep printing what gets
+ * appended to the last file.
+ * <p>
+ * Files are handed to the standard output channel when there is one,
+ * with sendfile for files and pipes and through a direct buffer for
+ * terminals, so the bytes never pass through the Java heap.
  */
 
 package intecmd.commands;
 
 import intecmd.CommandInterface;
+import intecmd.Context;
 import intecmd.CurrentDirectory;
+import intecmd.StandardOutput;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class ConcatenateCommand implements CommandInterface {
+    private static final int DIRECT_BUFFER_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE));
+
     private boolean isBuffered = true;
+    private boolean isFollowing = false;
+    private PrintStream out = System.out;
     private CurrentDirectory curDir = new CurrentDirectory();
+    private int status = SUCCESS;
+
+    /**
+     * The flags live in the fields, so every run gets an instance of its own.
+     */
+    @Override
+    public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+        ConcatenateCommand cat = new ConcatenateCommand();
+        cat.curDir = ctx.currentDirectory();
+        return cat.run(args, in, out);
+    }
+
+    /**
+     * Runs cat as a stage of a pipeline. Without any files the input
+     * is copied instead.
+     *
+     * @param in  what cat reads when no files are given, may be null
+     * @param out where cat writes
+     * @return the exit status, a failure if any file could not be copied
+     */
+    public int run(String[] data, InputStream in, PrintStream out) {
+        this.out = out;
+        in(data);
+        if (lastFile(data) < 0 && in != null)
+            cat(in, "standard input");
+        return status;
+    }
 
     public void in(String[] data) {
 
-        for (String s : data) {
+        int last = lastFile(data);
+        for (int i = 0; i < data.length; i++) {
+            String s = data[i];
             if (s.equals("-u")) {
                 isBuffered = false;
                 continue;
+            } else if (s.equals("-f")) {
+                isFollowing = true;
+                continue;
             } else if (s.equals("help")) {
-                System.out.println(help());
+                out.println(help());
                 return; //exit
             } else {
                 if (s.equals("cat")) {
                     continue; //do nothing
                 }
                 try {
-                    if (s.contains(curDir.SEPARATOR))
+                    if (isFollowing && i == last)
+                    {
+                        File file = s.contains(CurrentDirectory.SEPARATOR) ? new File(s) : new File(curDir.toString(), s);
+                        follow(new FollowingInputStream(file.toPath()), s);
+                    }
+                    else if (s.contains(curDir.SEPARATOR))
                     {
                         FileInputStream fis = new FileInputStream(s);
                         cat(fis, s);
@@ -48,39 +102,126 @@ public class ConcatenateCommand implements CommandInterface {
                     }
 
                 } catch (java.io.IOException e) {
-                    System.out.println("Could not open " + s);
+                    out.println("Could not open " + s);
+                    status = FAILURE;
                 }
             }
         }
 
     }
 
+    private static int lastFile(String[] data) {
+        for (int i = data.length - 1; i >= 0; i--) {
+            if (!data[i].equals("-u") && !data[i].equals("-f") && !data[i].equals("cat"))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Prints a file and then everything appended to it,
+     * until the thread is interrupted.
+     */
+    public void follow(InputStream is, String fileName) {
+        byte[] buf = new byte[8192];
+        int r;
+        try (InputStream in = is) {
+            while ((r = in.read(buf)) != -1) {
+                out.write(buf, 0, r);
+                out.flush();
+            }
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            out.println("Error reading from " + fileName);
+            status = FAILURE;
+        }
+    }
+
+    /**
+     * Copies a file to the standard output channel without going through
+     * System.out. Whatever the file holds beyond the size it had at the
+     * start (or all of it for files like /proc that report no size) is
+     * copied as a stream afterwards.
+     * <p>
+     * Unbuffered copies always go through the direct buffer, every read
+     * is written out before the next one.
+     */
+    public void cat(FileInputStream is, String fileName) {
+        FileChannel channel = out == System.out ? StandardOutput.channel() : null;
+        if (channel == null) {
+            cat((InputStream) is, fileName);
+            return;
+        }
+        FileChannel in = is.getChannel();
+        try {
+            if (!isBuffered || StandardOutput.isTerminal())
+                copyDirect(in, channel);
+            else
+                transfer(in, channel);
+        } catch (IOException e) {
+            out.println("Error writing " + fileName);
+            status = FAILURE;
+            return;
+        }
+        cat((InputStream) is, fileName);
+    }
+
+    private static void transfer(FileChannel in, FileChannel out) throws IOException {
+        long position = in.position();
+        long size = in.size();
+        while (position < size) {
+            long n = in.transferTo(position, size - position, out);
+            if (n <= 0)
+                break; //the file shrank
+            position += n;
+        }
+        in.position(position);
+    }
+
+    private static void copyDirect(FileChannel in, FileChannel out) throws IOException {
+        ByteBuffer buf = DIRECT_BUFFER.get();
+        buf.clear();
+        while (in.read(buf) != -1) {
+            buf.flip();
+            while (buf.hasRemaining())
+                out.write(buf);
+            buf.clear();
+        }
+    }
+
     public void cat(InputStream is, String fileName) {
 
         byte[] buf = new byte[8192]; //8KB
         int r;
         try {
             if (isBuffered) {
-                while ((r = is.read(buf)) != -1) {
+                while (!Thread.currentThread().isInterrupted() && (r = is.read(buf)) != -1) {
                     try {
-                        System.out.write(buf, 0, r);
+                        out.write(buf, 0, r);
                     } catch (Exception e) {
-                        System.out.println("Error writing " + fileName);
+                        out.println("Error writing " + fileName);
+                        status = FAILURE;
                     }
                 }
             } else if (!isBuffered) {
-                while ((r = is.read()) != -1) {
-                    System.out.write(r);
+                //whatever one read returns is written and flushed right away,
+                //a full chunk bypasses the buffer of System.out altogether
+                while (!Thread.currentThread().isInterrupted() && (r = is.read(buf)) != -1) {
+                    out.write(buf, 0, r);
+                    out.flush();
                 }
             }
         } catch (IOException e) {
-            System.out.println("Error reading from " + fileName);
+            out.println("Error reading from " + fileName);
+            status = FAILURE;
         }
     }
 
     public String help() {
         String h = "cat - concatenate two more files and send to standard out.\n" +
-                "Flags: -u\t\tDo not buffer stream.";
+                "Flags: -u\t\tDo not buffer stream.\n" +
+                "       -f\t\tKeep printing what gets appended to the last file.";
         return h;
     }
 }
@@ -0,0 +1,228 @@
+package intecmd.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of directory listings, shared by ls and cd.
+ * <p>
+ * Every cached directory is watched with a {@link WatchService}. Before a
+ * listing is handed out the pending events are looked at and the listings
+ * of the directories that changed are dropped, so a listing is read again
+ * only after something was created in or removed from its directory. The
+ * events of changes made by other programs arrive with a short delay, a
+ * listing can be that much behind. Commands of this shell that change a
+ * directory call {@link #invalidate(File)} themselves.
+ * <p>
+ * When the cache is full the directory that was listed least recently is
+ * dropped. Directories that can't be watched are not cached at all.
+ */
+public final class DirectoryCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final DirectoryCache SHARED = new DirectoryCache(DEFAULT_CAPACITY);
+
+    private final Map<Path, Entry> listings;
+    private final WatchService watcher;
+
+    public DirectoryCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least one.");
+        listings = new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, DirectoryCache.Entry> eldest) {
+                if (size() <= capacity)
+                    return false;
+                eldest.getValue().key.cancel();
+                return true;
+            }
+        };
+        watcher = newWatchService();
+    }
+
+    /**
+     * @return the cache of the process
+     */
+    public static DirectoryCache shared() {
+        return SHARED;
+    }
+
+    private static WatchService newWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            //nothing gets cached
+            return null;
+        }
+    }
+
+    /**
+     * @return the directories and files in the directory
+     * @throws UncheckedIOException if it isn't a directory that can be read
+     */
+    public Listing list(File directory) {
+        Path path = directory.getAbsoluteFile().toPath();
+        synchronized (listings) {
+            dropChanged();
+            Entry entry = listings.get(path);
+            if (entry != null)
+                return entry.listing;
+        }
+        //registered before reading, a change while reading drops the listing again
+        WatchKey key = watch(path);
+        Listing listing;
+        try {
+            listing = read(directory);
+        } catch (RuntimeException e) {
+            if (key != null)
+                key.cancel();
+            throw e;
+        }
+        if (key != null) {
+            synchronized (listings) {
+                //a cancelled key had an event taken before the listing was put
+                if (key.isValid())
+                    listings.put(path, new Entry(key, listing));
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Answers from the cached listing if there is one. A name that isn't
+     * in it is looked up on the disk, it may just have been created.
+     */
+    public boolean containsDirectory(File directory, String name) {
+        for (File child : list(directory).directories())
+            if (child.getName().equals(name))
+                return true;
+        return new File(directory, name).isDirectory();
+    }
+
+    /**
+     * Drops the listing of a directory, the next one is read from the disk.
+     */
+    public void invalidate(File directory) {
+        Path path = directory.getAbsoluteFile().toPath();
+        synchronized (listings) {
+            Entry entry = listings.remove(path);
+            if (entry != null)
+                entry.key.cancel();
+        }
+    }
+
+    public int size() {
+        synchronized (listings) {
+            return listings.size();
+        }
+    }
+
+    private WatchKey watch(Path directory) {
+        if (watcher == null)
+            return null;
+        try {
+            return directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Called holding the lock of the listings.
+     */
+    private void dropChanged() {
+        if (watcher == null)
+            return;
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            //any event, or an overflow, means the listing is outdated
+            key.pollEvents();
+            Path path = (Path) key.watchable();
+            Entry entry = listings.get(path);
+            if (entry != null && entry.key == key)
+                listings.remove(path);
+            key.cancel();
+        }
+    }
+
+    /**
+     * Enumerates the directory once and reads the attributes of every
+     * entry once to tell files from directories, links are followed. Entries that vanish while the
+     * directory is read, or are neither files nor directories, are left out.
+     */
+    private static Listing read(File directory) {
+        List<File> directories = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory.toPath())) {
+            for (Path child : children) {
+                BasicFileAttributes read;
+                try {
+                    read = Files.readAttributes(child, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                File file = child.toFile();
+                if (read.isDirectory())
+                    directories.add(file);
+                else if (read.isRegularFile())
+                    files.add(file);
+                else
+                    continue;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.sort(directories);
+        Collections.sort(files);
+        return new Listing(directories, files);
+    }
+
+    /**
+     * What a directory contained when it was read, in name order.
+     */
+    public static final class Listing {
+        private final List<File> directories;
+        private final List<File> files;
+
+        Listing(List<File> directories, List<File> files) {
+            this.directories = Collections.unmodifiableList(directories);
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        public List<File> directories() {
+            return directories;
+        }
+
+        public List<File> files() {
+            return files;
+        }
+    }
+
+    private static final class Entry {
+        final WatchKey key;
+        final Listing listing;
+
+        Entry(WatchKey key, Listing listing) {
+            this.key = key;
+            this.listing = listing;
+        }
+    }
+}
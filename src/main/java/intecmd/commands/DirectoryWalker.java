@@ -0,0 +1,162 @@
+package intecmd.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Walks a directory tree in parallel and hands out the matching files
+ * while the walk is still going on.
+ * <p>
+ * Every directory is listed by its own fork-join task, so sibling
+ * directories are read at the same time. Files go into a small bounded
+ * queue that the iterator takes from, which means the walk waits for the
+ * consumer instead of building a list of the whole tree. The order of the
+ * files therefore depends on which directory is read first.
+ * <p>
+ * Symbolic links are followed, but every directory is entered only once,
+ * so link cycles end the walk instead of looping. Entries that can't be
+ * read are skipped.
+ */
+final class DirectoryWalker implements Iterator<File>, AutoCloseable {
+
+    private static final int QUEUE_SIZE = 256;
+    private static final File END = new File("");
+    private static final ForkJoinPool WALK_POOL = new ForkJoinPool(GrepCommand.SEARCH_THREADS);
+
+    private final BlockingQueue<File> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Set<Object> visited = ConcurrentHashMap.newKeySet();
+    private final Predicate<String> nameFilter;
+    private volatile boolean closed;
+    private File next;
+
+    /**
+     * Starts walking right away.
+     *
+     * @param nameFilter decides by name which files to hand out
+     */
+    DirectoryWalker(Path root, Predicate<String> nameFilter) {
+        this.nameFilter = nameFilter;
+        WALK_POOL.execute(ForkJoinTask.adapt(() -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+                if (attributes.isDirectory() && enter(root, attributes))
+                    new ListDirectory(root).invoke();
+            } catch (IOException e) {
+                //unreadable root, nothing to walk
+            } finally {
+                put(END);
+            }
+        }));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                next = END;
+            }
+        }
+        return next != END;
+    }
+
+    @Override
+    public File next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        File file = next;
+        next = null;
+        return file;
+    }
+
+    /**
+     * Stops the walk. Directories already being listed finish early.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * @return true the first time a directory is seen
+     */
+    private boolean enter(Path directory, BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        try {
+            return visited.add(key != null ? key : directory.toRealPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void put(File file) {
+        try {
+            while (!queue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+                if (closed && file != END)
+                    return;
+                if (closed)
+                    queue.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class ListDirectory extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        ListDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<ListDirectory> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (closed)
+                        return;
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue; //broken link or no permission
+                    }
+                    if (attributes.isDirectory()) {
+                        if (enter(entry, attributes))
+                            subdirectories.add(new ListDirectory(entry));
+                    } else if (attributes.isRegularFile() && nameFilter.test(entry.getFileName().toString())
+                            && Files.isReadable(entry)) {
+                        put(entry.toFile());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                //skip the directory, keep walking the rest of the tree
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
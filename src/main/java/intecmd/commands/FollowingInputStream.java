@@ -0,0 +1,157 @@
+package intecmd.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a file and then everything that gets appended to it, like tail -f.
+ * <p>
+ * At the end of the file a read blocks until the file grows. The directory
+ * of the file is watched with a {@link WatchService}, so an idle file costs
+ * no CPU. Events can be missed (or the file system may have no watch
+ * support at all), so the file is also checked every poll interval.
+ * <p>
+ * A file that got shorter than the read offset has been truncated and is
+ * read again from the start. A file that was replaced by another one, as
+ * log rotation does, is read to its end and then the new file is read
+ * from the start.
+ * <p>
+ * The stream never ends by itself. Interrupting the reading thread makes
+ * the blocked read throw {@link InterruptedIOException}.
+ */
+final class FollowingInputStream extends InputStream {
+
+    static final long DEFAULT_POLL_MILLIS = 1000;
+
+    private final Path path;
+    private final long pollMillis;
+    private final WatchService watcher;
+    private RandomAccessFile file;
+    private Object fileKey;
+    private long position;
+
+    FollowingInputStream(Path path) throws IOException {
+        this(path, DEFAULT_POLL_MILLIS);
+    }
+
+    FollowingInputStream(Path path, long pollMillis) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.pollMillis = pollMillis;
+        open();
+        this.watcher = watch(this.path.getParent());
+    }
+
+    private static WatchService watch(Path directory) {
+        WatchService watcher = null;
+        try {
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            return watcher;
+        } catch (IOException | UnsupportedOperationException e) {
+            //polling only
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException ignored) {
+                    //nothing to clean up then
+                }
+            }
+            return null;
+        }
+    }
+
+    private void open() throws IOException {
+        RandomAccessFile opened = new RandomAccessFile(path.toFile(), "r");
+        if (file != null)
+            file.close();
+        file = opened;
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        position = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (true) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Following " + path + " was interrupted.");
+            file.seek(position);
+            int n = file.read(b, off, len);
+            if (n > 0) {
+                position += n;
+                return n;
+            }
+            if (!replacedOrTruncated())
+                await();
+        }
+    }
+
+    /**
+     * Called at the end of the file, so a replaced file has been read completely.
+     *
+     * @return true if reading starts over at the beginning of a file
+     */
+    private boolean replacedOrTruncated() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            //moved away and not recreated yet
+            return false;
+        }
+        Object key = attributes.fileKey();
+        boolean replaced = key != null && !key.equals(fileKey);
+        if (replaced || attributes.size() < position) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    private void await() throws IOException {
+        try {
+            if (watcher == null) {
+                Thread.sleep(pollMillis);
+                return;
+            }
+            WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+            while (key != null) {
+                //which file changed doesn't matter, the next read finds out
+                key.pollEvents();
+                key.reset();
+                key = watcher.poll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Following " + path + " was interrupted.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            file.close();
+        } finally {
+            if (watcher != null)
+                watcher.close();
+        }
+    }
+}
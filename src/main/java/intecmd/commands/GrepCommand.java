@@ -1,24 +1,103 @@
 package intecmd.commands;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import intecmd.CommandInterface;
+import intecmd.Context;
 import intecmd.CurrentDirectory;
 
 
 public class GrepCommand implements CommandInterface {
 
+    /**
+     * Number of files searched at the same time. Every search keeps
+     * exactly one file open, so this also caps the open file descriptors.
+     */
+    public static final int SEARCH_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 32);
+    /**
+     * Number of files whose results may wait for an earlier file to finish.
+     */
+    public static final int SEARCH_WINDOW = SEARCH_THREADS * 4;
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static final ExecutorService SEARCH_POOL = Executors.newFixedThreadPool(SEARCH_THREADS, r -> {
+        Thread t = new Thread(r, "grep-search-" + THREAD_NUMBER.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
     public String[] tokens;
+    /**
+     * Size from which on a single file is searched in parallel regions.
+     */
+    public static final long MAPPED_THRESHOLD = 64L * 1024 * 1024;
+    /**
+     * Size of the regions of a mapped file.
+     */
+    public static final long MAPPED_REGION_SIZE = 16L * 1024 * 1024;
+
     private CurrentDirectory currentDirectory = new CurrentDirectory();
+    private Charset charset = Charset.defaultCharset();
+    private long mappedThreshold = MAPPED_THRESHOLD;
+    private long mappedRegionSize = MAPPED_REGION_SIZE;
+    private long mappedRegionLimit = MappedSearch.MAX_REGION_SIZE;
+    private final PatternCache patternCache;
 
     public GrepCommand(String[] tokens) {
+        this(tokens, new PatternCache());
+    }
+
+    /**
+     * A grep that waits for {@link #execute} instead of searching right away.
+     */
+    public GrepCommand() {
+        this(new PatternCache());
+    }
+
+    /**
+     * A grep that waits for {@link #search(String[], InputStream, PrintStream)}
+     * instead of searching right away.
+     */
+    public GrepCommand(PatternCache patternCache) {
+        this.patternCache = patternCache;
+    }
+
+    /**
+     * @param patternCache compiled regular expressions shared with
+     *                     the other grep commands of a session
+     */
+    public GrepCommand(String[] tokens, PatternCache patternCache) {
         this.tokens = tokens;
+        this.patternCache = patternCache;
+        tokens = Options.parse(tokens).operands;
         if (tokens.length > 3)
             System.out.println(tooManyArguments());
         if (tokens[1].equals("help"))
             System.out.println(help());
         else {
-            System.out.println(executeSearch(tokens));
+            search(this.tokens, System.out);
         }
     }
 
@@ -27,45 +106,475 @@ public class GrepCommand implements CommandInterface {
     }
 
     public String executeSearch(String[] tokens) {
-        if (tokens.length == 2)
-            return "Too few arguments, try again";
-        File[] files = fileFinder(currentDirectory.toString());
         StringBuilder stringBuilder = new StringBuilder();
-        BufferedReader bufferedReader;
+        String error = search(tokens, null, stringBuilder::append, currentDirectory, patternCache);
+        return error != null ? error : stringBuilder.toString();
+    }
+
+    /**
+     * Searches like {@link #executeSearch(String[])} but prints every
+     * file's results as soon as the files before it are done.
+     */
+    public void search(String[] tokens, PrintStream out) {
+        search(tokens, null, out);
+    }
+
+    /**
+     * Like {@link #search(String[], PrintStream)}, but searches the input
+     * when the tokens name no file, the way grep works in a pipeline.
+     * Each matching line of the input is printed as soon as it is read.
+     */
+    public void search(String[] tokens, InputStream in, PrintStream out) {
+        print(tokens, in, out, currentDirectory, patternCache);
+    }
+
+    /**
+     * Searches in the directory of the session with its pattern cache.
+     * Nothing of a search is kept in the instance, so one grep can run
+     * any number of searches at the same time.
+     */
+    @Override
+    public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+        return print(args, in, out, ctx.currentDirectory(), ctx.patternCache());
+    }
+
+    /**
+     * @return the exit status, a failure if nothing matched, as in grep
+     */
+    private int print(String[] tokens, InputStream in, PrintStream out, CurrentDirectory currentDirectory, PatternCache patternCache) {
+        Consumer<String> print = out::print;
+        if (Options.parse(tokens).follow) {
+            //matches trickle in, show each one right away
+            print = piece -> {
+                out.print(piece);
+                out.flush();
+            };
+        }
+        String error = search(tokens, in, print, currentDirectory, patternCache);
+        out.println(error != null ? error : "");
+        out.flush();
+        return error != null ? FAILURE : SUCCESS;
+    }
+
+    /**
+     * Runs the search and hands the output over piece by piece, in file order.
+     *
+     * @param in searched if no file is named, may be null
+     * @return an error message, or null if there was output
+     */
+    private String search(String[] tokens, InputStream in, Consumer<String> out,
+                          CurrentDirectory currentDirectory, PatternCache patternCache) {
+        Options options = Options.parse(tokens);
+        tokens = options.operands;
+        if (options.error != null)
+            return options.error;
+        boolean fromInput = tokens.length == 2 && in != null;
+        if (tokens.length == 2 && !fromInput)
+            return "Too few arguments, try again";
+        if (options.follow && options.countOnly)
+            return "Matches can't be counted while following a file";
 
-        if (!tokens[2].endsWith(".txt"))
+        if (!fromInput && !tokens[2].endsWith(".txt"))
             return "Unsupported file format";
-        if (files == null || files.length == 0)
-            return "No files with that name";
+        File directory = new File(currentDirectory.toString());
+        File[] files = null;
+        if (!options.recursive && !fromInput) {
+            files = this.tokens != null ? fileFinder(currentDirectory.toString()) : fileFinder(currentDirectory.toString(), tokens[2]);
+            if (files == null || files.length == 0)
+                return "No files with that name";
+            Arrays.sort(files); //results come out in name order
+        }
 
-        for (File f : files) {
+        Pattern pattern = null;
+        if (options.regex) {
             try {
-                bufferedReader = new BufferedReader(new FileReader(f.getAbsolutePath()));
-                String line = bufferedReader.readLine();
-                while (line != null) {
-                    if (line.contains(tokens[1])) {
-                        stringBuilder.append(tokens[1]);
-                    }
-                    line = bufferedReader.readLine();
+                pattern = patternCache.get(tokens[1]);
+            } catch (PatternSyntaxException e) {
+                return "Invalid regular expression: " + e.getDescription();
+            }
+        }
+        Pattern compiled = pattern;
+        String literal = tokens[1];
+        boolean keepLines = options.lineNumbers && !options.countOnly && !options.filesWithMatches;
+        long limit = options.filesWithMatches ? 1 : options.maxCount;
+        boolean named = !fromInput && (options.recursive || tokens[2].startsWith("*"));
+        TrigramIndex index = options.index ? TrigramIndex.open(directory) : null;
+        int[] query = index == null ? null
+                : TrigramIndex.trigrams(compiled != null ? RegexMatcher.requiredPrefix(literal) : literal, charset);
+        Supplier<LineMatcher> matchers = () -> compiled != null
+                ? RegexMatcher.forPattern(compiled, charset)
+                : LiteralMatcher.forPattern(literal, charset);
+        Predicate<String> lineTest = compiled != null
+                ? line -> compiled.matcher(line).find()
+                : line -> line.contains(literal);
+        boolean[] written = new boolean[1];
+        Consumer<String> lineOutput = line -> {
+            out.accept(written[0] ? "\n" + line : line);
+            written[0] = true;
+        };
+        Function<File, String> nameOf = f -> named ? directory.toPath().relativize(f.toPath()).toString() : f.getName();
+        Consumer<File> unreadable = f -> lineOutput.accept("Could not read " + nameOf.apply(f));
+        Consumer<GrepHits> output = hits -> {
+            String name = hits.file == null ? "(standard input)" : nameOf.apply(hits.file);
+            String prefix = named ? name + ":" : "";
+            if (options.filesWithMatches) {
+                if (hits.count > 0)
+                    lineOutput.accept(name);
+            } else if (options.countOnly) {
+                lineOutput.accept(prefix + hits.count);
+            } else if (keepLines) {
+                for (int i = 0; i < hits.count; i++)
+                    lineOutput.accept(prefix + hits.lineNumbers.get(i) + ":" + hits.texts.get(i));
+            } else {
+                for (int i = 0; i < hits.count; i++)
+                    out.accept(literal.replace("\"", "").replace("'", ""));
+                written[0] |= hits.count > 0;
+            }
+        };
+        Search<File> search = (f, hits) -> {
+            if (index != null && !index.mayContain(f, query)) {
+                if (options.countOnly) {
+                    GrepHits none = new GrepHits(false);
+                    none.file = f;
+                    hits.accept(none);
                 }
-                bufferedReader.close();
-            } catch (IOException ioe) {
-                ioe.printStackTrace();
+                return 0;
+            }
+            try (InputStream read = index != null ? index.read(f) : new FileInputStream(f)) {
+                searchStream(read, f, matchers, lineTest, keepLines, limit, options.countOnly, hits);
+            }
+            return 0;
+        };
+        if (fromInput) {
+            try {
+                searchStream(in, null, matchers, lineTest, keepLines, limit, options.countOnly, output);
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                return "Could not read the input";
             }
+        } else if (options.follow) {
+            if (options.recursive || files.length != 1)
+                return "Only one file can be followed";
+            try (InputStream following = new FollowingInputStream(files[0].toPath())) {
+                searchStream(following, files[0], matchers, lineTest, keepLines, limit, false, output);
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                return "Could not follow " + files[0].getName();
+            }
+        } else if (options.recursive) {
+            int searched;
+            try (DirectoryWalker walker = new DirectoryWalker(directory.toPath(), nameFilter(tokens[2]))) {
+                searched = searchInOrder(walker, search, unreadable, output);
+            }
+            if (searched == 0)
+                return "No files with that name";
+        } else if (files.length == 1 && files[0].length() >= mappedThreshold && limit == Long.MAX_VALUE && matchers.get() != null
+                && (index == null || index.isCurrent(files[0]))) {
+            //a file that has to be indexed is streamed instead, so it is read once
+            try {
+                if (index == null || index.mayContain(files[0], query))
+                    searchMapped(files[0], matchers, keepLines, options.countOnly, output);
+            } catch (IOException e) {
+                return "Could not read " + files[0].getName();
+            }
+        } else {
+            searchInOrder(Arrays.asList(files).iterator(), search, unreadable, output);
         }
-        if (stringBuilder.toString().isEmpty())
+        if (index != null)
+            index.save();
+        if (!written[0])
             return "error message";
-        return stringBuilder.toString().replace("\"", "").replace("'", "");
+        return null;
+    }
+
+    /**
+     * Files at least this large are searched as one memory mapped file
+     * whose regions are searched in parallel, when grep is given a single file.
+     *
+     * @param threshold  size in bytes from which on a file is mapped
+     * @param regionSize bytes searched by one task
+     */
+    public void setMappedSearch(long threshold, long regionSize) {
+        setMappedSearch(threshold, regionSize, MappedSearch.MAX_REGION_SIZE);
+    }
+
+    /**
+     * @param regionLimit largest region, a file with a longer line is searched as a stream
+     */
+    public void setMappedSearch(long threshold, long regionSize, long regionLimit) {
+        this.mappedThreshold = threshold;
+        this.mappedRegionSize = regionSize;
+        this.mappedRegionLimit = Math.min(regionLimit, MappedSearch.MAX_REGION_SIZE);
+    }
+
+    /**
+     * A search of one item, run on the search pool.
+     */
+    private interface Search<I> {
+        /**
+         * @param hits gets the hits as they are found
+         * @return the lines of the item that the line numbers of the
+         * items after it are shifted by, 0 for items numbered on their own
+         */
+        long search(I item, Consumer<GrepHits> hits) throws IOException;
+    }
+
+    /**
+     * Searches the items concurrently but hands the hits over in the
+     * order of the items. The hits of the oldest unfinished item are
+     * passed on as they are found, the items after it keep theirs in a
+     * {@link HitRelay} until it is their turn. At most
+     * {@link #SEARCH_WINDOW} items are taken from the iterator ahead of
+     * the oldest unfinished one, so the iterator can be lazy.
+     *
+     * @param unreadable told in order about the items that couldn't be read
+     * @return the number of items searched
+     */
+    private static <I> int searchInOrder(Iterator<I> items, Search<I> search, Consumer<I> unreadable,
+                                         Consumer<GrepHits> output) {
+        ArrayDeque<I> pending = new ArrayDeque<>();
+        ArrayDeque<HitRelay> relays = new ArrayDeque<>();
+        ArrayDeque<Future<Long>> window = new ArrayDeque<>();
+        int searched = 0;
+        long lines = 0;
+        try {
+            while (items.hasNext() || !window.isEmpty()) {
+                while (items.hasNext() && window.size() < SEARCH_WINDOW) {
+                    I item = items.next();
+                    HitRelay relay = new HitRelay(output);
+                    Callable<Long> task = () -> search.search(item, relay);
+                    pending.add(item);
+                    relays.add(relay);
+                    window.add(SEARCH_POOL.submit(task));
+                }
+                I item = pending.poll();
+                relays.poll().open(lines);
+                try {
+                    lines += window.poll().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        unreadable.accept(item);
+                    else
+                        e.getCause().printStackTrace();
+                }
+                searched++;
+            }
+        } catch (InterruptedException e) {
+            window.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+        }
+        return searched;
+    }
+
+    /**
+     * Maps the file and searches its regions in parallel. The hits are
+     * passed on in file order, with their line numbers shifted by the
+     * lines of the regions before them. A file with a line too long for
+     * a region is searched as a stream instead.
+     *
+     * @param countOnly whether to hand over only the number of matches, once at the end
+     */
+    private void searchMapped(File file, Supplier<LineMatcher> matchers, boolean keepLines, boolean countOnly,
+                              Consumer<GrepHits> output) throws IOException {
+        GrepHits counted = new GrepHits(false);
+        counted.file = file;
+        Consumer<GrepHits> each = countOnly ? hit -> counted.count += hit.count : output;
+        boolean[] failed = new boolean[1];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<MappedSearch> regions = MappedSearch.regions(channel, mappedRegionSize, mappedRegionLimit);
+            if (regions == null) {
+                try (InputStream read = Channels.newInputStream(channel)) {
+                    searchStream(read, file, matchers, null, keepLines, Long.MAX_VALUE, countOnly, output);
+                }
+                return;
+            }
+            searchInOrder(regions.iterator(), (region, hits) -> region.search(matchers, keepLines, charset, hit -> {
+                hit.file = file;
+                hits.accept(hit);
+            }), region -> failed[0] = true, each);
+        }
+        if (failed[0])
+            throw new IOException("Could not read a region of " + file);
+        if (countOnly)
+            output.accept(counted);
+    }
+
+    /**
+     * Searches a stream, which may be a file, a followed file or the
+     * output of another command. The matches are handed over in batches,
+     * at the latest once the data read so far is searched, so nothing
+     * piles up however long the stream is and a followed file shows its
+     * matches right away. Returns when the stream ends or the limit is reached.
+     *
+     * @param file       the file the stream reads, null for the input of a pipeline
+     * @param countOnly  whether to hand over only the number of matches, once at the end
+     * @throws InterruptedIOException if the thread is interrupted while waiting for data
+     */
+    private void searchStream(InputStream in, File file, Supplier<LineMatcher> matchers, Predicate<String> lineTest,
+                              boolean keepLines, long limit, boolean countOnly, Consumer<GrepHits> output) throws IOException {
+        GrepHits counted = new GrepHits(false);
+        counted.file = file;
+        Consumer<GrepHits> each = countOnly ? hits -> counted.count += hits.count : output;
+        HitBatch batch = new HitBatch(file, keepLines, limit, charset, each);
+        LineMatcher matcher = matchers.get();
+        if (matcher != null) {
+            new LineScanner(matcher, batch, keepLines).scan(in);
+        } else {
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(in, charset));
+            long number = 0;
+            String line;
+            boolean more = true;
+            while (more && (line = bufferedReader.readLine()) != null) {
+                number++;
+                checkInterrupted(number);
+                if (lineTest.test(line))
+                    more = batch.add(number, line);
+                if (!batch.isEmpty() && !bufferedReader.ready())
+                    batch.flush();
+            }
+        }
+        batch.flush();
+        if (countOnly)
+            output.accept(counted);
+    }
+
+    /**
+     * Counts the matching lines of a file by searching its raw bytes,
+     * the way grep searches a file without -n.
+     */
+    static int countMatches(File file, LineMatcher matcher) throws IOException {
+        int[] count = new int[1];
+        try (InputStream in = new FileInputStream(file)) {
+            new LineScanner(matcher, (buf, start, end, line) -> {
+                count[0]++;
+                return true;
+            }, false).scan(in);
+        }
+        return count[0];
+    }
+
+    /**
+     * Lets a search that reads line by line be cancelled, looking at the
+     * interrupt flag every few thousand lines.
+     */
+    private static void checkInterrupted(long line) throws InterruptedIOException {
+        if ((line & 0xFFF) == 0 && Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Search was interrupted.");
+    }
+
+    /**
+     * @return the bytes [start, end) of the buffer as a String
+     */
+    static String decode(ByteBuffer buf, int start, int end, Charset charset) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buf.get(start + i);
+        return new String(bytes, charset);
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
     }
 
     public String help() {
-        return "test help";
+        return "grep - searches .txt files for a pattern." +
+                "\nWithout flags the pattern is printed once for every matching line." +
+                "\nUsage: grep [flags] pattern file.txt, *.txt searches every .txt file." +
+                "\nWithout a file the input of a pipeline is searched." +
+                "\nFlags:" +
+                "\n-E\t\tThe pattern is a regular expression." +
+                "\n-r\t\tSearch the .txt files of all subdirectories too." +
+                "\n-n\t\tPrint the matching lines with their line numbers." +
+                "\n-m N\t\tStop after N matching lines per file." +
+                "\n-l\t\tOnly print the names of the files with a match." +
+                "\n-c\t\tOnly print the number of matching lines per file." +
+                "\n--index\t\tSkip files that can't match, with an index kept in .grepindex." +
+                "\n-f\t\tKeep searching what gets appended to the file.";
     }
 
     public File[] fileFinder(String directory) {
+        return fileFinder(directory, Options.parse(this.tokens).operands[2]);
+    }
+
+    private File[] fileFinder(String directory, String fileName) {
         File dir = new File(directory);
-        if (!this.tokens[2].startsWith("*"))
-            return dir.listFiles((dir1, name) -> name.equals(this.tokens[2]));
-        return dir.listFiles((dir1, name) -> name.endsWith(".txt"));
+        Predicate<String> nameFilter = nameFilter(fileName);
+        return dir.listFiles((dir1, name) -> nameFilter.test(name));
+    }
+
+    private static Predicate<String> nameFilter(String fileName) {
+        if (!fileName.startsWith("*"))
+            return name -> name.equals(fileName);
+        return name -> name.endsWith(".txt");
+    }
+
+    /**
+     * The options given to grep, and what is left of the tokens without them.
+     */
+    private static final class Options {
+        /**
+         * The command, the pattern and the file name.
+         */
+        String[] operands;
+        boolean regex;
+        boolean recursive;
+        boolean lineNumbers;
+        boolean countOnly;
+        boolean filesWithMatches;
+        /**
+         * Whether to skip files with the help of a {@link TrigramIndex}.
+         */
+        boolean index;
+        boolean follow;
+        long maxCount = Long.MAX_VALUE;
+        /**
+         * Why the options can't be used, or null.
+         */
+        String error;
+
+        static Options parse(String[] tokens) {
+            Options options = new Options();
+            List<String> operands = new ArrayList<>();
+            boolean more = true;
+            for (int i = 0; i < tokens.length; i++) {
+                String token = tokens[i];
+                if (i > 0 && more && token.equals("--"))
+                    more = false;
+                else if (i > 0 && more && token.equals("-E"))
+                    options.regex = true;
+                else if (i > 0 && more && token.equals("-r"))
+                    options.recursive = true;
+                else if (i > 0 && more && token.equals("-n"))
+                    options.lineNumbers = true;
+                else if (i > 0 && more && token.equals("-c"))
+                    options.countOnly = true;
+                else if (i > 0 && more && token.equals("-f"))
+                    options.follow = true;
+                else if (i > 0 && more && token.equals("--index"))
+                    options.index = true;
+                else if (i > 0 && more && token.equals("-l"))
+                    options.filesWithMatches = true;
+                else if (i > 0 && more && token.equals("-m"))
+                    options.maxCount = parseCount(options, i + 1 < tokens.length ? tokens[++i] : "");
+                else
+                    operands.add(token);
+            }
+            options.operands = operands.toArray(new String[operands.size()]);
+            return options;
+        }
+
+        private static long parseCount(Options options, String token) {
+            try {
+                long count = Long.parseLong(token);
+                if (count > 0)
+                    return count;
+            } catch (NumberFormatException e) {
+                //reported below
+            }
+            options.error = "Invalid match count: " + token;
+            return Long.MAX_VALUE;
+        }
     }
 }
@@ -0,0 +1,52 @@
+package intecmd.commands;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The matches grep found in one file, or in one region of a file.
+ * <p>
+ * Matching lines are only kept when they will be printed.
+ * Line numbers are relative to the start of the searched data.
+ */
+final class GrepHits {
+
+    /**
+     * The searched file, null for a region.
+     */
+    File file;
+    int count;
+    /**
+     * Line terminators in the searched data, if lines were counted.
+     */
+    long lines;
+    final List<Long> lineNumbers;
+    final List<String> texts;
+
+    GrepHits(boolean keepLines) {
+        lineNumbers = keepLines ? new ArrayList<>() : null;
+        texts = keepLines ? new ArrayList<>() : null;
+    }
+
+    void add(long line, String text) {
+        count++;
+        if (texts != null) {
+            lineNumbers.add(line);
+            texts.add(text);
+        }
+    }
+
+    /**
+     * Adds the hits of the data directly following the data of these hits.
+     */
+    void append(GrepHits next) {
+        if (texts != null) {
+            for (int i = 0; i < next.count; i++)
+                add(lines + next.lineNumbers.get(i), next.texts.get(i));
+        } else {
+            count += next.count;
+        }
+        lines += next.lines;
+    }
+}
@@ -0,0 +1,78 @@
+package intecmd.commands;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.function.Consumer;
+
+/**
+ * Collects the matching lines of a search and hands them on in batches.
+ * <p>
+ * A batch is handed on when a block of the input is done, and before it
+ * grows past {@link #BATCH_SIZE} hits, so the hits still go out while
+ * the search runs, but a file with many matching lines doesn't cost a
+ * {@link GrepHits} per line.
+ */
+final class HitBatch implements LineScanner.MatchListener {
+
+    static final int BATCH_SIZE = 256;
+
+    private final File file;
+    private final boolean keepLines;
+    private final long limit;
+    private final Charset charset;
+    private final Consumer<GrepHits> output;
+    private GrepHits batch;
+    private long found;
+
+    /**
+     * @param file  the searched file, null for the input of a pipeline or a region
+     * @param limit number of matches after which the search is stopped
+     */
+    HitBatch(File file, boolean keepLines, long limit, Charset charset, Consumer<GrepHits> output) {
+        this.file = file;
+        this.keepLines = keepLines;
+        this.limit = limit;
+        this.charset = charset;
+        this.output = output;
+    }
+
+    @Override
+    public boolean onMatch(ByteBuffer buf, int start, int end, long line) {
+        return add(line, keepLines ? GrepCommand.decode(buf, start, end, charset) : null);
+    }
+
+    /**
+     * @return false once the limit is reached
+     */
+    boolean add(long line, String text) {
+        if (batch == null) {
+            batch = new GrepHits(keepLines);
+            batch.file = file;
+        }
+        batch.add(line, text);
+        if (batch.count == BATCH_SIZE)
+            flush();
+        return ++found < limit;
+    }
+
+    @Override
+    public void onBlockEnd() {
+        flush();
+    }
+
+    /**
+     * Hands on the hits collected so far.
+     */
+    void flush() {
+        if (batch != null) {
+            GrepHits full = batch;
+            batch = null;
+            output.accept(full);
+        }
+    }
+
+    boolean isEmpty() {
+        return batch == null;
+    }
+}
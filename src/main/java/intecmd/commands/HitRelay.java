@@ -0,0 +1,57 @@
+package intecmd.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hands the hits of one search on in file order while the search runs.
+ * <p>
+ * Searches run ahead of the one whose hits are being printed. Until its
+ * turn comes a relay keeps the hits it is given. Once it is opened it
+ * passes on what it kept and from then on every hit goes straight
+ * through, on the thread of the search. So only the searches waiting for
+ * their turn hold on to hits, never the one being printed.
+ */
+final class HitRelay implements Consumer<GrepHits> {
+
+    private final Consumer<GrepHits> output;
+    private List<GrepHits> kept = new ArrayList<>();
+    private boolean open;
+    private long lineOffset;
+
+    HitRelay(Consumer<GrepHits> output) {
+        this.output = output;
+    }
+
+    @Override
+    public synchronized void accept(GrepHits hits) {
+        if (open)
+            output.accept(shift(hits));
+        else
+            kept.add(hits);
+    }
+
+    /**
+     * Called once every search before this one is done.
+     *
+     * @param lineOffset lines before the searched data, added to the line numbers
+     */
+    synchronized void open(long lineOffset) {
+        this.lineOffset = lineOffset;
+        open = true;
+        for (GrepHits hits : kept)
+            output.accept(shift(hits));
+        kept = null;
+    }
+
+    private GrepHits shift(GrepHits hits) {
+        if (lineOffset == 0 || hits.texts == null)
+            return hits;
+        GrepHits shifted = new GrepHits(true);
+        shifted.file = hits.file;
+        shifted.lines = lineOffset;
+        shifted.append(hits);
+        return shifted;
+    }
+}
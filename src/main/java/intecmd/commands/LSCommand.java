@@ -1,82 +1,260 @@
 package intecmd.commands;
 
 import intecmd.CommandInterface;
+import intecmd.Context;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class LSCommand implements CommandInterface {
+    /**
+     * Names printed per page by -U and -N.
+     */
+    public static final int PAGE_SIZE = 1000;
+
     private File file;
+    private Map<File, BasicFileAttributes> attributes;
     private ArrayList<File> directories;
     private ArrayList<File> files;
 
+    /**
+     * An ls that waits for {@link #execute} instead of listing right away.
+     */
+    public LSCommand() {
+    }
+
     public LSCommand(String pathToFile) {
+        load(pathToFile);
+    }
+
+    public LSCommand(String[] commands, String pathToFile) {
+        //names only modes never read the whole listing
+        if (namesOnly(commands)) {
+            printNames(commands, new File(pathToFile), System.out);
+            return;
+        }
+        load(pathToFile);
+        list(commands, System.out);
+    }
+
+    private void load(String pathToFile) {
         file = new File(pathToFile);
         if (!file.getName().equals(null)) {
-            files = new ArrayList<>();
-            directories = new ArrayList<>();
-            setDirectories();
-            setFiles();
+            DirectoryCache.Listing listing = DirectoryCache.shared().list(file);
+            files = new ArrayList<>(listing.files());
+            directories = new ArrayList<>(listing.directories());
         }
     }
 
-    public LSCommand(String[] commands, String pathToFile) {
-        this(pathToFile);
+    /**
+     * The listing lives in the fields, so every run gets an instance of its own.
+     */
+    @Override
+    public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+        if (namesOnly(args))
+            return printNames(args, new File(ctx.currentDirectory().toString()), out);
+        return new LSCommand(ctx.currentDirectory().toString()).list(args, out);
+    }
+
+    private static boolean namesOnly(String[] commands) {
+        for (String command : commands)
+            if (command.equals("-U") || command.equals("-N"))
+                return true;
+        return false;
+    }
+
+    /**
+     * Lists only the names, one per line, for directories too large to be
+     * held as File objects. -U prints them in the order the directory
+     * yields them while it is still being read, -N sorts them in a
+     * {@link PackedNames}. Nothing is cached and no entry is looked at
+     * beyond its name. -p N prints only page N.
+     *
+     * @return the exit status
+     */
+    private static int printNames(String[] commands, File directory, PrintStream out) {
+        boolean sorted = false;
+        long page = 0;
+        for (int i = 1; i < commands.length; i++) {
+            switch (commands[i]) {
+                case "-U":
+                    break;
+                case "-N":
+                    sorted = true;
+                    break;
+                case "-p":
+                    page = i + 1 < commands.length ? parsePage(commands[++i]) : -1;
+                    if (page < 1) {
+                        out.println("Invalid page: " + (i < commands.length ? commands[i] : "none"));
+                        return FAILURE;
+                    }
+                    break;
+                default:
+                    out.println("Flag not recognized. Try -help");
+                    return FAILURE;
+            }
+        }
+        long first = page > 0 ? (page - 1) * PAGE_SIZE : 0;
+        long last = page > 0 ? first + PAGE_SIZE : Long.MAX_VALUE;
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory.toPath())) {
+            if (sorted) {
+                PackedNames names = new PackedNames();
+                for (Path child : children)
+                    names.add(child.getFileName().toString());
+                int[] order = names.sortedOrder();
+                for (long i = first; i < Math.min(last, order.length); i++)
+                    out.println(names.get(order[(int) i]));
+                return SUCCESS;
+            }
+            long index = 0;
+            for (Path child : children) {
+                if (index >= last || Thread.currentThread().isInterrupted())
+                    break;
+                if (index++ < first)
+                    continue;
+                out.println(child.getFileName());
+                //the first names show while the rest is still being read
+                if (index % PAGE_SIZE == 0)
+                    out.flush();
+            }
+            return SUCCESS;
+        } catch (IOException | UncheckedIOException e) {
+            out.println("Could not read " + directory.getName() + ".");
+            return FAILURE;
+        }
+    }
+
+    private static long parsePage(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the exit status
+     */
+    private int list(String[] commands, PrintStream out) {
+        List<String> display = new ArrayList<>();
+        for (String command : commands) {
+            if (command.equals("-s"))
+                sort(Comparator.comparingLong(this::size).reversed());
+            else if (command.equals("-t"))
+                sort(Comparator.comparingLong(this::lastModified).reversed());
+            else
+                display.add(command);
+        }
+        commands = display.toArray(new String[0]);
         if (commands.length == 2) {
             switch (commands[1]) {
                 case "-l":
-                    System.out.println("Directories:");
-                    listDirectoriesTopDown();
-                    System.out.println("Files:");
-                    listFilesTopDown();
+                    out.println("Directories:");
+                    listDirectoriesTopDown(out);
+                    out.println("Files:");
+                    listFilesTopDown(out);
                     break;
                 case "-f":
-                    System.out.println("Files: ");
-                    printFiles();
+                    out.println("Files: ");
+                    printFiles(out);
                     break;
                 case "-lf":
-                    System.out.println("Files:");
-                    listFilesTopDown();
+                    out.println("Files:");
+                    listFilesTopDown(out);
                     break;
                 case "-d":
-                    System.out.print("Directories: ");
-                    printDirectories();
+                    out.print("Directories: ");
+                    printDirectories(out);
                     break;
                 case "-ld":
-                    System.out.println("Directories:");
-                    listDirectoriesTopDown();
+                    out.println("Directories:");
+                    listDirectoriesTopDown(out);
                     break;
                 case "-help":
-                    System.out.println(help());
+                    out.println(help());
                     break;
                 default:
-                    System.out.println("Flag not recognized. Try -help");
+                    out.println("Flag not recognized. Try -help");
+                    return FAILURE;
             }
         } else if (commands.length != 1) {
-            System.out.println("Too many flags. Try -help");
+            out.println("Too many flags. Try -help");
+            return FAILURE;
         } else {
-            System.out.print("Directories: ");
+            out.print("Directories: ");
             if (getDirectories().size() > 0) {
-                printDirectories();
+                printDirectories(out);
             } else {
-                System.out.println("No directories in this directory");
+                out.println("No directories in this directory");
             }
-            System.out.print("Files: ");
+            out.print("Files: ");
             if (files.size() > 0) {
-                printFiles();
+                printFiles(out);
             } else {
-                System.out.println("No files in this directory");
+                out.println("No files in this directory");
             }
         }
+        return SUCCESS;
     }
 
     public void setDirectories() {
-        directories.addAll(Arrays.asList(file.listFiles((dir, name) -> new File(dir, name).isDirectory())));
+        directories.addAll(DirectoryCache.shared().list(file).directories());
     }
 
     public void setFiles() {
-        files.addAll(Arrays.asList(file.listFiles((current, name) -> new File(current, name).isFile())));
+        files.addAll(DirectoryCache.shared().list(file).files());
+    }
+
+    /**
+     * Sorts the listing, entries that compare equal stay in name order.
+     * <p>
+     * The cached listing is only dropped when an entry is created or
+     * removed, not when a file is written to, so the sizes and times are
+     * read from the disk, once per entry and run.
+     */
+    private void sort(Comparator<File> order) {
+        directories.sort(order);
+        files.sort(order);
+    }
+
+    private long size(File entry) {
+        BasicFileAttributes attributes = attributes(entry);
+        return attributes != null ? attributes.size() : 0;
+    }
+
+    private long lastModified(File entry) {
+        BasicFileAttributes attributes = attributes(entry);
+        return attributes != null ? attributes.lastModifiedTime().toMillis() : 0;
+    }
+
+    /**
+     * @return null for an entry that vanished since the listing was read
+     */
+    private BasicFileAttributes attributes(File entry) {
+        if (attributes == null)
+            attributes = new HashMap<>();
+        return attributes.computeIfAbsent(entry, LSCommand::readAttributes);
+    }
+
+    private static BasicFileAttributes readAttributes(File entry) {
+        try {
+            return Files.readAttributes(entry.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     public ArrayList<File> getFiles() {
@@ -95,20 +273,29 @@ public class LSCommand implements CommandInterface {
         }
     }
 
-    private void printFiles() {
-        files.forEach(file1 -> System.out.print(file1.getName() + " "));
+    private void printFiles(PrintStream out) {
+        out.print(names(files, " ", " "));
+    }
+
+    private void printDirectories(PrintStream out) {
+        out.print(names(directories, " ", " "));
     }
 
-    private void printDirectories() {
-        directories.forEach(directories1 -> System.out.print(directories1.getName() + " "));
+    private void listFilesTopDown(PrintStream out) {
+        out.print(names(files, System.lineSeparator(), System.lineSeparator()));
     }
 
-    private void listFilesTopDown() {
-        files.forEach(file1 -> System.out.println(file1.getName()));
+    private void listDirectoriesTopDown(PrintStream out) {
+        out.print(names(directories, System.lineSeparator(), System.lineSeparator()));
     }
 
-    private void listDirectoriesTopDown() {
-        directories.forEach(directories1 -> System.out.println(directories1.getName()));
+    /**
+     * The whole listing is printed at once rather than name by name.
+     */
+    private static String names(List<File> entries, String delimiter, String suffix) {
+        if (entries.isEmpty())
+            return "";
+        return entries.stream().map(File::getName).collect(Collectors.joining(delimiter, "", suffix));
     }
 
     public String help() {
@@ -116,6 +303,11 @@ public class LSCommand implements CommandInterface {
                 "\n-f show all files in the current folder" +
                 "\n-fl lists all files in the current folder" +
                 "\n-d show all directories in the current folder" +
-                "\n-ld lists all directories in the current folder";
+                "\n-ld lists all directories in the current folder" +
+                "\n-s sorts by size, largest first, together with any of the above" +
+                "\n-t sorts by modification time, newest first, together with any of the above" +
+                "\n-U lists only the names, as they are read, for very large folders" +
+                "\n-N lists only the names, sorted, for very large folders" +
+                "\n-p N with -U or -N lists only page N, " + PAGE_SIZE + " names to a page";
     }
 }
@@ -0,0 +1,26 @@
+package intecmd.commands;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides which lines of a byte buffer match a grep query.
+ * <p>
+ * Searching is split in two so that most of the buffer can be skipped
+ * cheaply: {@link #nextCandidate} jumps to a line that may match and
+ * {@link #matches} gives the final answer for that line.
+ */
+interface LineMatcher {
+
+    /**
+     * @return the index of a byte in [from, to) on the first line that may match,
+     * or -1 if no line in the range can match
+     */
+    int nextCandidate(ByteBuffer buf, int from, int to);
+
+    /**
+     * @param start first byte of the line
+     * @param end   index of the line terminator, or the end of the data
+     * @return true if the line matches
+     */
+    boolean matches(ByteBuffer buf, int start, int end);
+}
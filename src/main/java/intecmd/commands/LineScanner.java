@@ -0,0 +1,181 @@
+package intecmd.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Walks the lines of a byte stream that a {@link LineMatcher} accepts.
+ * <p>
+ * Lines end at \n, \r or \r\n, the same as for
+ * {@link java.io.BufferedReader#readLine()}. Bytes are read in blocks
+ * and only complete lines are handed to the matcher, the unfinished
+ * line at the end of a block is moved to the front and completed by
+ * the next read. No line is turned into a String unless the listener
+ * asks for it.
+ * <p>
+ * Line numbers are only tracked when asked for, since that means
+ * looking at every byte instead of skipping ahead.
+ */
+final class LineScanner {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Gets called for every matching line.
+     */
+    interface MatchListener {
+        /**
+         * @param start first byte of the line
+         * @param end   index of the line terminator, or the end of the data
+         * @param line  number of the line, counting from one, or 0 if lines are not counted
+         * @return false to stop the search
+         */
+        boolean onMatch(ByteBuffer buf, int start, int end, long line);
+
+        /**
+         * Gets called when a block read from a stream has been searched,
+         * before the next one is read.
+         */
+        default void onBlockEnd() {
+        }
+    }
+
+    private final LineMatcher matcher;
+    private final MatchListener listener;
+    private final boolean countLines;
+    private long line = 1;
+
+    LineScanner(LineMatcher matcher, MatchListener listener, boolean countLines) {
+        this.matcher = matcher;
+        this.listener = listener;
+        this.countLines = countLines;
+    }
+
+    /**
+     * @return the number of line terminators scanned so far,
+     * if lines are counted and the search was not stopped
+     */
+    long terminators() {
+        return line - 1;
+    }
+
+    /**
+     * Searches a whole stream.
+     *
+     * @return false if the listener stopped the search
+     * @throws java.io.InterruptedIOException if the thread is interrupted between blocks
+     */
+    boolean scan(InputStream in) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(block);
+        int filled = 0;
+        int n;
+        while ((n = in.read(block, filled, block.length - filled)) != -1) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Search was interrupted.");
+            filled += n;
+            int cut = completeLines(block, filled);
+            if (cut == 0) {
+                if (filled == block.length) {
+                    //one line longer than the block, make room for the rest of it
+                    block = Arrays.copyOf(block, block.length * 2);
+                    view = ByteBuffer.wrap(block);
+                }
+                continue;
+            }
+            if (!scan(view, 0, cut))
+                return false;
+            listener.onBlockEnd();
+            filled -= cut;
+            System.arraycopy(block, cut, block, 0, filled);
+        }
+        return scan(view, 0, filled);
+    }
+
+    /**
+     * Searches the lines in [from, to), where from is the start of a line
+     * and to does not split a \r\n.
+     *
+     * @return false if the listener stopped the search
+     */
+    boolean scan(ByteBuffer buf, int from, int to) {
+        int pos = from;
+        int counted = from;
+        while (pos < to) {
+            int candidate = matcher.nextCandidate(buf, pos, to);
+            if (candidate < 0)
+                break;
+            int start = lineStart(buf, pos, candidate);
+            int end = lineEnd(buf, candidate, to);
+            if (matcher.matches(buf, start, end)) {
+                if (countLines) {
+                    line += countTerminators(buf, counted, start);
+                    counted = start;
+                }
+                if (!listener.onMatch(buf, start, end, countLines ? line : 0))
+                    return false;
+            }
+            pos = next(buf, end, to);
+        }
+        if (countLines)
+            line += countTerminators(buf, counted, to);
+        return true;
+    }
+
+    /**
+     * @return the number of lines ended in [from, to), a \r\n counts once
+     */
+    static long countTerminators(ByteBuffer buf, int from, int to) {
+        long count = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '\n' || (b == '\r' && (i + 1 >= to || buf.get(i + 1) != '\n')))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the index of the first byte after the terminator at end
+     */
+    static int next(ByteBuffer buf, int end, int to) {
+        if (end + 1 < to && buf.get(end) == '\r' && buf.get(end + 1) == '\n')
+            return end + 2;
+        return end + 1;
+    }
+
+    static int lineStart(ByteBuffer buf, int from, int at) {
+        int i = at;
+        while (i > from && !isTerminator(buf.get(i - 1)))
+            i--;
+        return i;
+    }
+
+    static int lineEnd(ByteBuffer buf, int at, int to) {
+        int i = at;
+        while (i < to && !isTerminator(buf.get(i)))
+            i++;
+        return i;
+    }
+
+    static boolean isTerminator(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * @return the length of the prefix of block[0, filled) made of complete lines.
+     * A trailing \r is not complete yet, it may be the first half of \r\n.
+     */
+    private static int completeLines(byte[] block, int filled) {
+        for (int i = filled - 1; i >= 0; i--) {
+            if (block[i] == '\n')
+                return i + 1;
+            if (block[i] == '\r' && i < filled - 1)
+                return i + 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,87 @@
+package intecmd.commands;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds a literal string in encoded bytes with the
+ * Boyer-Moore-Horspool algorithm.
+ * <p>
+ * The skip table is built once per pattern. When the last byte of the
+ * window does not match, the window jumps ahead by up to the length
+ * of the pattern, so long patterns are faster to search for than short
+ * ones.
+ */
+final class LiteralMatcher implements LineMatcher {
+
+    private final byte[] pattern;
+    private final int[] skip = new int[256];
+
+    LiteralMatcher(byte[] pattern) {
+        if (pattern.length == 0)
+            throw new IllegalArgumentException("Pattern can't be empty.");
+        this.pattern = pattern;
+        for (int i = 0; i < skip.length; i++)
+            skip[i] = pattern.length;
+        for (int i = 0; i < pattern.length - 1; i++)
+            skip[pattern[i] & 0xFF] = pattern.length - 1 - i;
+    }
+
+    /**
+     * Searching the encoded pattern in encoded lines gives the same answer
+     * as {@link String#contains} on decoded lines only if no character can
+     * show up in the middle of another one, and the pattern has no line
+     * terminators of its own.
+     *
+     * @return a matcher for the pattern, or null if the lines have to be decoded
+     */
+    static LiteralMatcher forPattern(String pattern, Charset charset) {
+        if (pattern.isEmpty() || pattern.indexOf('\n') >= 0 || pattern.indexOf('\r') >= 0)
+            return null;
+        if (!StandardCharsets.UTF_8.equals(charset) && !StandardCharsets.US_ASCII.equals(charset)
+                && !StandardCharsets.ISO_8859_1.equals(charset))
+            return null;
+        if (!charset.newEncoder().canEncode(pattern))
+            return null;
+        return new LiteralMatcher(pattern.getBytes(charset));
+    }
+
+    int length() {
+        return pattern.length;
+    }
+
+    /**
+     * @return the index of the first occurrence in [from, to), or -1
+     */
+    int indexOf(ByteBuffer buf, int from, int to) {
+        int last = pattern.length - 1;
+        byte tail = pattern[last];
+        int i = from;
+        while (i <= to - pattern.length) {
+            byte b = buf.get(i + last);
+            if (b == tail && startsAt(buf, i, last))
+                return i;
+            i += skip[b & 0xFF];
+        }
+        return -1;
+    }
+
+    private boolean startsAt(ByteBuffer buf, int at, int length) {
+        for (int k = 0; k < length; k++)
+            if (buf.get(at + k) != pattern[k])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int nextCandidate(ByteBuffer buf, int from, int to) {
+        return indexOf(buf, from, to);
+    }
+
+    @Override
+    public boolean matches(ByteBuffer buf, int start, int end) {
+        //the pattern has no terminators, so a hit always lies within one line
+        return true;
+    }
+}
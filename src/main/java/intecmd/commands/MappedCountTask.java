@@ -0,0 +1,90 @@
+package intecmd.commands;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Counts a region of a file by memory mapping it.
+ * <p>
+ * Regions larger than the chunk size are split in half and counted
+ * in parallel. The split point is moved forward to the start of the
+ * next encoded character, so no character is ever cut in two, and
+ * the partial counts are joined with {@link WordCountKernel.Tally#merge}.
+ * <p>
+ * All tasks of one count share a cancellation flag. Once it is set
+ * no further chunk is mapped or scanned.
+ */
+final class MappedCountTask extends RecursiveTask<WordCountKernel.Tally> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final FileChannel channel;
+	private final WordCountKernel kernel;
+	private final boolean linesOnly;
+	private final AtomicBoolean cancelled;
+	private final long from;
+	private final long to;
+	private final int chunkSize;
+
+	MappedCountTask(FileChannel channel, WordCountKernel kernel, boolean linesOnly,
+					AtomicBoolean cancelled, long from, long to, int chunkSize) {
+		this.channel = channel;
+		this.kernel = kernel;
+		this.linesOnly = linesOnly;
+		this.cancelled = cancelled;
+		this.from = from;
+		this.to = to;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	protected WordCountKernel.Tally compute() {
+		if (cancelled.get()) {
+			throw new CancellationException();
+		}
+		try {
+			if (to - from <= chunkSize) {
+				return countChunk();
+			}
+			long split = alignedSplit(from + (to - from) / 2);
+			if (split >= to) {
+				//nothing left to split off, the region is only one character
+				return countChunk();
+			}
+			MappedCountTask left = new MappedCountTask(channel, kernel, linesOnly, cancelled, from, split, chunkSize);
+			MappedCountTask right = new MappedCountTask(channel, kernel, linesOnly, cancelled, split, to, chunkSize);
+			left.fork();
+			WordCountKernel.Tally tail = right.compute();
+			return left.join().merge(tail);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private WordCountKernel.Tally countChunk() throws IOException {
+		int length = (int) (to - from);
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+		return linesOnly ? kernel.scanLines(buf, 0, length) : kernel.scan(buf, 0, length);
+	}
+
+	/**
+	 * Moves a split point past continuation bytes. A UTF-8
+	 * character is at most four bytes, so three steps are enough.
+	 */
+	private long alignedSplit(long split) throws IOException {
+		ByteBuffer peek = ByteBuffer.allocate(3);
+		channel.read(peek, split);
+		for (int i = 0; i < peek.position(); i++) {
+			if (kernel.isBoundary(peek.get(i))) {
+				return split + i;
+			}
+		}
+		return split + peek.position();
+	}
+}
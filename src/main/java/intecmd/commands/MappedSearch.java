@@ -0,0 +1,105 @@
+package intecmd.commands;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Searches one region of a memory mapped file.
+ * <p>
+ * A large file is cut into regions that each start right after a \n,
+ * so no line and no \r\n is ever split between two regions. The regions
+ * can be searched in any order as long as the results are put back
+ * together in file order: every region counts its own lines, and the
+ * line numbers of a region are shifted by the lines of all regions
+ * before it.
+ * <p>
+ * A region never exceeds the size a mapping can have, so a file with a
+ * line longer than that can't be cut into regions at all and has to be
+ * searched as a stream.
+ */
+final class MappedSearch {
+
+    /**
+     * Largest region handed to one search, a mapping can't exceed 2 GB.
+     */
+    static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long from;
+    private final long to;
+
+    private MappedSearch(FileChannel channel, long from, long to) {
+        this.channel = channel;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Splits the file into regions of roughly the given size,
+     * each one ending with a \n or at the end of the file.
+     *
+     * @param maxRegionSize largest region, at most {@link #MAX_REGION_SIZE}
+     * @return null if a line doesn't fit into a region
+     */
+    static List<MappedSearch> regions(FileChannel channel, long regionSize, long maxRegionSize) throws IOException {
+        long size = channel.size();
+        long step = Math.max(1, Math.min(regionSize, maxRegionSize / 2));
+        List<MappedSearch> regions = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = start + step >= size ? size
+                    : nextLineStart(channel, start + step, Math.min(size, start + maxRegionSize), size);
+            if (end < 0)
+                return null;
+            regions.add(new MappedSearch(channel, start, end));
+            start = end;
+        }
+        return regions;
+    }
+
+    /**
+     * @return the position after the next \n before the limit, the size
+     * if the limit is the end of the file, otherwise -1
+     */
+    private static long nextLineStart(FileChannel channel, long position, long limit, long size) throws IOException {
+        ByteBuffer peek = ByteBuffer.allocate(8192);
+        long at = position;
+        while (at < limit) {
+            peek.clear();
+            peek.limit((int) Math.min(peek.capacity(), limit - at));
+            int n = channel.read(peek, at);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++)
+                if (peek.get(i) == '\n')
+                    return at + i + 1;
+            at += n;
+        }
+        return limit == size ? size : -1;
+    }
+
+    /**
+     * @param matchers  a fresh matcher for this region, matchers are not shared between threads
+     * @param keepLines whether the matching lines are needed
+     * @param hits      gets the matching lines in batches while the region is searched,
+     *                  numbered from the start of the region
+     * @return the line terminators in the region, if lines are kept
+     */
+    long search(Supplier<LineMatcher> matchers, boolean keepLines, Charset charset, Consumer<GrepHits> hits) throws IOException {
+        int length = (int) (to - from);
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        HitBatch batch = new HitBatch(null, keepLines, Long.MAX_VALUE, charset, hits);
+        LineScanner scanner = new LineScanner(matchers.get(),
+                (b, start, end, line) -> batch.onMatch(b, start, end, line) && !Thread.currentThread().isInterrupted(), keepLines);
+        scanner.scan(buf, 0, length);
+        batch.flush();
+        return scanner.terminators();
+    }
+}
@@ -1,17 +1,58 @@
 package intecmd.commands;
 
+import intecmd.CommandInterface;
+import intecmd.Context;
 import intecmd.CurrentDirectory;
 import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
 
 
 
-public class MkdirCommand {
+public class MkdirCommand implements CommandInterface {
 
     private File dir;
     private CurrentDirectory currentDirectory = new CurrentDirectory();
+    private PrintStream out = System.out;
+    private int status = SUCCESS;
 
 
+    /**
+     * A mkdir that waits for {@link #execute} instead of creating anything right away.
+     */
+    public MkdirCommand() {
+    }
+
     public MkdirCommand(String[] directory) {
+        make(directory);
+    }
+
+
+    public MkdirCommand(String path) {
+        this.dir = new File(path);
+        createDirectory();
+    }
+
+
+    @Override
+    public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+        MkdirCommand worker = new MkdirCommand();
+        worker.currentDirectory = ctx.currentDirectory();
+        worker.out = out;
+        worker.make(args);
+        return worker.status;
+    }
+
+
+    @Override
+    public String help() {
+        return "mkdir - make directories.\n" +
+                "mkdir <directory>...\tCreates the directories in the current directory.\n" +
+                "mkdir -p <directory>...\tCreates the directories with their parents.";
+    }
+
+
+    private void make(String[] directory) {
         if (directory.length > 1) {
             switch (directory[1]) {
                 case "-p":
@@ -25,21 +66,19 @@ public class MkdirCommand {
     }
 
 
-    public MkdirCommand(String path) {
-        this.dir = new File(path);
-        createDirectory();
-    }
-
-
     private void createDirectory() {
         if (dir.exists() && dir.isDirectory()) {
-            System.out.println("Directory already exists!");
+            out.println("Directory already exists!");
+            status = FAILURE;
         } else {
-            System.out.println("Directory do not exists, creating now...");
+            out.println("Directory do not exists, creating now...");
             boolean success = dir.mkdirs();
-            System.out.printf("Successfully created new directory: %s%n", dir);
+            for (File parent = dir.getAbsoluteFile().getParentFile(); parent != null; parent = parent.getParentFile())
+                DirectoryCache.shared().invalidate(parent);
+            out.printf("Successfully created new directory: %s%n", dir);
             if (!success) {
-                System.out.printf("Error, unable to create new directory: %s%n", dir);
+                out.printf("Error, unable to create new directory: %s%n", dir);
+                status = FAILURE;
 
             }
         }
@@ -0,0 +1,90 @@
+package intecmd.commands;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * File names packed one after the other as UTF-8 into a single array.
+ * <p>
+ * A name costs its bytes and one int for where it starts, instead of a
+ * String or File object of its own, so the names of a directory with
+ * millions of entries fit in a few tens of megabytes. Sorting compares
+ * the bytes unsigned, which for UTF-8 is code point order.
+ */
+final class PackedNames {
+
+    private byte[] bytes = new byte[64 * 1024];
+    private int[] starts = new int[1024];
+    private int used;
+    private int size;
+
+    void add(String name) {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (used + encoded.length > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(used + encoded.length, grow(bytes.length)));
+        if (size == starts.length)
+            starts = Arrays.copyOf(starts, grow(starts.length));
+        System.arraycopy(encoded, 0, bytes, used, encoded.length);
+        starts[size++] = used;
+        used += encoded.length;
+    }
+
+    private static int grow(int length) {
+        if (length >= Integer.MAX_VALUE / 2)
+            throw new OutOfMemoryError("Too many names to keep in one array.");
+        return length * 2;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(int index) {
+        return new String(bytes, starts[index], end(index) - starts[index], StandardCharsets.UTF_8);
+    }
+
+    private int end(int index) {
+        return index + 1 < size ? starts[index + 1] : used;
+    }
+
+    /**
+     * @return the indexes of the names in name order
+     */
+    int[] sortedOrder() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        int[] buffer = new int[size];
+        //bottom up merge sort, the ints are sorted without boxing them
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size - width; low += 2 * width)
+                merge(order, buffer, low, low + width, Math.min(low + 2 * width, size));
+        }
+        return order;
+    }
+
+    private void merge(int[] order, int[] buffer, int low, int middle, int high) {
+        System.arraycopy(order, low, buffer, low, high - low);
+        int left = low;
+        int right = middle;
+        for (int k = low; k < high; k++) {
+            if (left < middle && (right >= high || compare(buffer[left], buffer[right]) <= 0))
+                order[k] = buffer[left++];
+            else
+                order[k] = buffer[right++];
+        }
+    }
+
+    private int compare(int a, int b) {
+        int i = starts[a];
+        int j = starts[b];
+        int endA = end(a);
+        int endB = end(b);
+        while (i < endA && j < endB) {
+            int difference = (bytes[i++] & 0xFF) - (bytes[j++] & 0xFF);
+            if (difference != 0)
+                return difference;
+        }
+        return (endA - i) - (endB - j);
+    }
+}
@@ -0,0 +1,57 @@
+package intecmd.commands;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache of compiled regular expressions.
+ * <p>
+ * Scripts tend to run the same query over and over, so a session keeps
+ * one of these and hands it to every {@link GrepCommand}. When the cache
+ * is full the pattern that was used least recently is dropped.
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Map<String, Pattern> patterns;
+
+    public PatternCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PatternCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least one.");
+        patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the compiled pattern, compiling it only if it is not cached
+     * @throws java.util.regex.PatternSyntaxException if the expression is invalid
+     */
+    public Pattern get(String regex) {
+        synchronized (patterns) {
+            Pattern pattern = patterns.get(regex);
+            if (pattern == null) {
+                pattern = Pattern.compile(regex);
+                patterns.put(regex, pattern);
+            }
+            return pattern;
+        }
+    }
+
+    public int size() {
+        synchronized (patterns) {
+            return patterns.size();
+        }
+    }
+}
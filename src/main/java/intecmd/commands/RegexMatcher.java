@@ -0,0 +1,103 @@
+package intecmd.commands;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches lines against a regular expression.
+ * <p>
+ * Most expressions start with some plain text that every match has to
+ * contain. That text is searched for as bytes with a {@link LiteralMatcher}
+ * first, and only lines that contain it are decoded and handed to the
+ * regex engine. Expressions without such a prefix check every line.
+ * <p>
+ * Holds a {@link Matcher}, so an instance must only be used by one thread.
+ */
+final class RegexMatcher implements LineMatcher {
+
+    private static final String META_CHARACTERS = "\\.[]()*+?{}^$|";
+
+    private final LiteralMatcher prefix;
+    private final Matcher matcher;
+    private final CharsetDecoder decoder;
+
+    private RegexMatcher(LiteralMatcher prefix, Pattern pattern, Charset charset) {
+        this.prefix = prefix;
+        this.matcher = pattern.matcher("");
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * @return a matcher working on bytes, or null if lines of this charset
+     * can't be split without decoding them
+     */
+    static RegexMatcher forPattern(Pattern pattern, Charset charset) {
+        if (LiteralMatcher.forPattern("x", charset) == null)
+            return null;
+        return new RegexMatcher(LiteralMatcher.forPattern(requiredPrefix(pattern.pattern()), charset), pattern, charset);
+    }
+
+    /**
+     * Finds the plain text a regular expression starts with. Every line
+     * that matches must contain it. Expressions with alternation have no
+     * such text, and neither have those starting with a group or class.
+     *
+     * @return the required prefix, may be empty
+     */
+    static String requiredPrefix(String regex) {
+        if (regex.indexOf('|') >= 0)
+            return "";
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                //only escaped punctuation is plain text, \d \Q and friends are not
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1)))
+                    break;
+                c = regex.charAt(i + 1);
+                i += 2;
+            } else if (META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                i++;
+            }
+            if (i < regex.length()) {
+                char quantifier = regex.charAt(i);
+                if (quantifier == '*' || quantifier == '?' || quantifier == '{')
+                    break; //c is optional
+                if (quantifier == '+') {
+                    prefix.append(c);
+                    break;
+                }
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    @Override
+    public int nextCandidate(ByteBuffer buf, int from, int to) {
+        return prefix == null ? from : prefix.indexOf(buf, from, to);
+    }
+
+    @Override
+    public boolean matches(ByteBuffer buf, int start, int end) {
+        ByteBuffer line = buf.duplicate();
+        line.limit(end);
+        line.position(start);
+        try {
+            return matcher.reset(decoder.decode(line)).find();
+        } catch (CharacterCodingException e) {
+            //can't happen when replacing
+            return false;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package intecmd.commands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * On-disk index of the byte trigrams of the files below one directory.
+ * <p>
+ * A line can only contain a literal if the file contains every three
+ * byte sequence of the encoded literal, so files missing one of them
+ * don't have to be read at all. Each file is indexed together with its
+ * size and modification time. A file whose size or time differ from its
+ * entry, or that has no entry yet, is always searched and indexed again,
+ * so a missing or outdated index only means a full scan of those files.
+ * The trigrams are collected from what the search reads, the file is
+ * not read a second time for the index.
+ * <p>
+ * A file can be rewritten at the same size within the granularity of
+ * its modification time. So, as git does with its index, an entry whose
+ * time isn't before the time the index was written is not trusted either.
+ * <p>
+ * The index is kept in {@value #FILE_NAME} in the indexed directory.
+ * Entries are looked up and refreshed from the search threads.
+ */
+final class TrigramIndex {
+
+    static final String FILE_NAME = ".grepindex";
+
+    private static final int MAGIC = 0x47524958;
+    private static final int VERSION = 1;
+    /**
+     * One bit per possible trigram, reused by every file a thread indexes.
+     */
+    private static final ThreadLocal<BitSet> SEEN = ThreadLocal.withInitial(() -> new BitSet(1 << 24));
+
+    private final Path root;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Modification time of the index file when it was loaded.
+     */
+    private long saved = Long.MIN_VALUE;
+    private volatile boolean dirty;
+
+    private TrigramIndex(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Loads the index of a directory. An index that is missing or can't be
+     * read starts out empty and gets filled by the next search.
+     */
+    static TrigramIndex open(File directory) {
+        TrigramIndex index = new TrigramIndex(directory.getAbsoluteFile().toPath());
+        try {
+            index.saved = Files.getLastModifiedTime(index.root.resolve(FILE_NAME)).toMillis();
+        } catch (IOException e) {
+            //read below
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(index.root.resolve(FILE_NAME))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return index;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                int[] trigrams = new int[in.readInt()];
+                int previous = 0;
+                for (int k = 0; k < trigrams.length; k++) {
+                    previous += readVarInt(in);
+                    trigrams[k] = previous;
+                }
+                index.entries.put(name, new Entry(size, modified, trigrams));
+            }
+        } catch (NoSuchFileException e) {
+            //not indexed yet
+        } catch (IOException e) {
+            //unreadable, rebuilt from scratch
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * @return the trigrams every match of the text contains, sorted. Empty if
+     * the text is too short to narrow anything down or can't be searched as bytes.
+     */
+    static int[] trigrams(String text, Charset charset) {
+        if (LiteralMatcher.forPattern(text, charset) == null)
+            return new int[0];
+        byte[] bytes = text.getBytes(charset);
+        return IntStream.range(2, Math.max(2, bytes.length))
+                .map(i -> (bytes[i - 2] & 0xFF) << 16 | (bytes[i - 1] & 0xFF) << 8 | (bytes[i] & 0xFF))
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * @param query trigrams as returned by {@link #trigrams(String, Charset)}
+     * @return false only if the file has a current entry that lacks one of them
+     */
+    boolean mayContain(File file, int[] query) {
+        Entry entry = current(file);
+        if (entry == null)
+            return true;
+        for (int trigram : query)
+            if (Arrays.binarySearch(entry.trigrams, trigram) < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return whether the file has an entry that can be trusted
+     */
+    boolean isCurrent(File file) {
+        return current(file) != null;
+    }
+
+    private Entry current(File file) {
+        Entry entry = entries.get(nameOf(file));
+        if (entry == null || entry.size != file.length() || entry.modified != file.lastModified() || entry.modified >= saved)
+            return null;
+        return entry;
+    }
+
+    /**
+     * Opens a file for a search. A file without a current entry is indexed
+     * from what the search reads, once the stream is closed. What the
+     * search didn't read by then is read by close.
+     */
+    InputStream read(File file) throws IOException {
+        long size = file.length();
+        long modified = file.lastModified();
+        InputStream in = new FileInputStream(file);
+        if (current(file) != null)
+            return in;
+        return new Indexing(in, nameOf(file), size, modified);
+    }
+
+    private String nameOf(File file) {
+        return root.relativize(file.getAbsoluteFile().toPath()).toString();
+    }
+
+    /**
+     * Drops the entries of deleted files and writes the index back if
+     * anything changed. The index is only an aid, so a directory that
+     * can't be written to just stays unindexed.
+     */
+    void save() {
+        for (String name : entries.keySet()) {
+            if (!Files.exists(root.resolve(name))) {
+                entries.remove(name);
+                dirty = true;
+            }
+        }
+        if (!dirty)
+            return;
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(root, FILE_NAME, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                Map<String, Entry> snapshot = new TreeMap<>(entries);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    out.writeInt(entry.trigrams.length);
+                    int previous = 0;
+                    for (int trigram : entry.trigrams) {
+                        writeVarInt(out, trigram - previous);
+                        previous = trigram;
+                    }
+                }
+            }
+            try {
+                Files.move(temporary, root.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, root.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            if (temporary != null)
+                temporary.toFile().delete();
+        }
+    }
+
+    /**
+     * Trigrams are stored as the gaps between them, which mostly fit in a byte or two.
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed index.");
+    }
+
+    /**
+     * Collects the trigrams of a file while it is read, on the thread
+     * that reads it.
+     */
+    private final class Indexing extends FilterInputStream {
+        private final String name;
+        private final long size;
+        private final long modified;
+        private final BitSet seen = SEEN.get();
+        private int window;
+        private long read;
+        private boolean ended;
+
+        Indexing(InputStream in, String name, long size, long modified) {
+            super(in);
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            seen.clear();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1)
+                ended = true;
+            else
+                add(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1)
+                ended = true;
+            for (int i = 0; i < n; i++)
+                add(b[off + i]);
+            return n;
+        }
+
+        /**
+         * Reads what is skipped, so it is indexed too.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, LineScanner.BLOCK_SIZE)];
+            long left = n;
+            int r;
+            while (left > 0 && (r = read(skipped, 0, (int) Math.min(left, skipped.length))) != -1)
+                left -= r;
+            return n - left;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void add(int b) {
+            window = (window << 8 | (b & 0xFF)) & 0xFFFFFF;
+            if (++read >= 3)
+                seen.set(window);
+        }
+
+        /**
+         * Stores the entry unless the search was interrupted before the end of the file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                byte[] rest = new byte[LineScanner.BLOCK_SIZE];
+                while (!ended && !Thread.currentThread().isInterrupted())
+                    read(rest, 0, rest.length);
+            } finally {
+                super.close();
+            }
+            if (ended) {
+                entries.put(name, new Entry(size, modified, seen.stream().toArray()));
+                dirty = true;
+            }
+        }
+    }
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final int[] trigrams;
+
+        Entry(long size, long modified, int[] trigrams) {
+            this.size = size;
+            this.modified = modified;
+            this.trigrams = trigrams;
+        }
+    }
+}
@@ -1,23 +1,66 @@
 package intecmd.commands;
 
 import intecmd.CommandInterface;
+import intecmd.Context;
 import intecmd.CurrentDirectory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WordCountCommand implements CommandInterface, Callable {
 
+	/**
+	 * Files at least this big are memory mapped and counted in parallel.
+	 */
+	public static final long MAPPED_THRESHOLD = 64L * 1024 * 1024;
+	/**
+	 * Size of the regions handed to each fork-join task.
+	 */
+	public static final int MAPPED_CHUNK_SIZE = 16 * 1024 * 1024;
+	/**
+	 * Number of files counted at the same time when wc gets more than one.
+	 * This also bounds the number of files kept open.
+	 */
+	public static final int COUNT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+	private static final ExecutorService COUNT_POOL = Executors.newFixedThreadPool(COUNT_THREADS, r -> {
+		Thread t = new Thread(r, "wc-count-" + THREAD_NUMBER.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	});
+
 	private String message;
 	private Long charCount;
 	private Long wordCount;
 	private Long newlineCount;
 	private boolean printWords, printChars, printLines;
-	private boolean isDone, helpMode, isError, isWorking;
+	private boolean isDone, helpMode, isError;
+	private Charset charset = Charset.defaultCharset();
 	private CurrentDirectory currentDirectory = new CurrentDirectory();
+	private PrintStream out = System.out;
+	private final List<String> rowNames = new ArrayList<>();
+	private final List<long[]> rowCounts = new ArrayList<>();
+	private final List<String> pendingNames = new ArrayList<>();
+	private final List<CompletableFuture<long[]>> pending = new ArrayList<>();
 
 	public WordCountCommand() {
 		message = "";
@@ -26,9 +69,55 @@ public class WordCountCommand implements CommandInterface, Callable {
 		charCount = 0L;
 	}
 
+	/**
+	 * Parses the arguments and counts every file before returning.
+	 */
 	public void in(String[] data) {
+		start(data);
+		try {
+			collect(Long.MAX_VALUE);
+		} catch (TimeoutException e) {
+			//can not happen without a deadline
+		}
+	}
+
+	/**
+	 * The counts live in the fields, so every run gets an instance of its own.
+	 */
+	@Override
+	public int execute(String[] args, InputStream in, PrintStream out, Context ctx) throws Exception {
+		WordCountCommand wc = new WordCountCommand();
+		wc.currentDirectory = ctx.currentDirectory();
+		wc.charset = charset;
+		return wc.run(args, in, out);
+	}
+
+	/**
+	 * Runs wc as a stage of a pipeline. Without any files the input
+	 * is counted instead.
+	 *
+	 * @param in  what wc counts when no files are given, may be null
+	 * @param out where the counts are printed
+	 * @return the exit status, a failure if any file could not be counted
+	 */
+	public int run(String[] data, InputStream in, PrintStream out) throws Exception {
+		this.out = out;
+		start(data);
+		if (pending.isEmpty() && !helpMode && in != null) {
+			updateCounts(processStream(in));
+		}
+		out.print(call());
+		return isError || !isDone && !helpMode ? FAILURE : SUCCESS;
+	}
+
+	/**
+	 * Parses the arguments and starts counting the files in the
+	 * background. The result is picked up by {@link #call()} or
+	 * {@link #call(long, TimeUnit)}, which block until counting is done.
+	 */
+	public void start(String[] data) {
 		if (data == null) {
-			System.out.println("No input detected. Run wc help for more information.");
+			out.println("No input detected. Run wc help for more information.");
 			return;
 		}
 		parseArguments(data);
@@ -36,6 +125,7 @@ public class WordCountCommand implements CommandInterface, Callable {
 
 	private void parseArguments(String[] data) {
 		List<String> other = new ArrayList<>();
+		List<String> fileNames = new ArrayList<>();
 		String flagCheck = Arrays.toString(data);
 		if (!flagCheck.contains("-l") &&
 				!flagCheck.contains("-w")
@@ -68,10 +158,14 @@ public class WordCountCommand implements CommandInterface, Callable {
 					helpMode = true;
 					break;
 				default:
-					count(s);
+					fileNames.add(s);
 			}
 
 		}
+		for (String s : fileNames) {
+			pendingNames.add(s);
+			pending.add(countAsync(s));
+		}
 	}
 
 	private void parseFlag(String flag) {
@@ -112,15 +206,36 @@ public class WordCountCommand implements CommandInterface, Callable {
 	 * the start of a word so we increase our counter.
 	 * Repeat until we reach EOF (signalled as int -1)
 	 *
+	 * <p>
+	 * For UTF-8, US-ASCII and ISO-8859-1 the same counts are computed
+	 * straight from the bytes by {@link WordCountKernel} instead,
+	 * so the stream is never decoded. Any other charset takes the
+	 * char by char route described above.
+	 *
 	 * @param is The data that needs to be counted
 	 * @return [0] = words, [1] = chars, [2] = lines
 	 * @throws Exception If the InputStream cannot be read
 	 */
 	public long[] processStream(InputStream is) throws Exception {
+		WordCountKernel kernel = WordCountKernel.forCharset(charset);
+		if (kernel == null) {
+			return processChars(is);
+		}
+		boolean linesOnly = printLines && !printChars && !printWords;
+		long[] counts = kernel.count(is, linesOnly).toArray(WordCountKernel.COUNTS_LAST_LINE);
+		is.close(); //release resource
+		if (linesOnly) {
+			counts[0] = 0L;
+			counts[1] = 0L;
+		}
+		return counts;
+	}
+
+	private long[] processChars(InputStream is) throws Exception {
 		long words = 0L;
 		long chars = 0L;
 		long lines = 0L;
-		LineNumberReader in = new LineNumberReader(new InputStreamReader((is)));
+		LineNumberReader in = new LineNumberReader(new InputStreamReader(is, charset));
 		int c;
 		char cc;
 		char last = ' ';
@@ -131,15 +246,20 @@ public class WordCountCommand implements CommandInterface, Callable {
 		if (printLines && !printChars && !printWords) {
 			while ((c = in.read()) != -1) {
 				//just go through the whole stream
+				if ((++chars & 0xFFFF) == 0) {
+					checkInterrupted();
+				}
 			}
+			chars = 0L;
 			lines = in.getLineNumber();
-			isDone = true;
 			return new long[]{words, chars, lines};
 		}
 
 		// -1 is EOF
 		while ((c = in.read()) != -1) {
-			chars++;
+			if ((++chars & 0xFFFF) == 0) {
+				checkInterrupted();
+			}
 			cc = (char) c;
 			if (Character.isWhitespace(cc)) {
 				last = cc;
@@ -155,6 +275,61 @@ public class WordCountCommand implements CommandInterface, Callable {
 		return new long[]{words, chars, lines};
 	}
 
+	private static void checkInterrupted() throws InterruptedIOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Counting was interrupted.");
+		}
+	}
+
+	/**
+	 * Counts a file by memory mapping it and splitting it into chunks
+	 * that are counted in parallel on the common fork-join pool.
+	 * <p>
+	 * Gives the same results as {@link #processStream(InputStream)}
+	 * for the same file, but only works for charsets where this can be
+	 * done without decoding (UTF-8, US-ASCII and ISO-8859-1).
+	 *
+	 * @param file The file that needs to be counted
+	 * @return [0] = words, [1] = chars, [2] = lines
+	 * @throws IOException If the file cannot be mapped
+	 */
+	public long[] processMapped(File file) throws IOException {
+		return processMapped(file, MAPPED_CHUNK_SIZE);
+	}
+
+	public long[] processMapped(File file, int chunkSize) throws IOException {
+		WordCountKernel kernel = WordCountKernel.forCharset(charset);
+		if (kernel == null) {
+			throw new IllegalStateException(charset + " can not be counted without decoding.");
+		}
+		boolean linesOnly = printLines && !printChars && !printWords;
+		AtomicBoolean cancelled = new AtomicBoolean();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedCountTask task = new MappedCountTask(channel, kernel, linesOnly, cancelled, 0L, channel.size(), chunkSize);
+			ForkJoinTask<WordCountKernel.Tally> running = ForkJoinPool.commonPool().submit(task);
+			long[] counts = running.get().toArray(WordCountKernel.COUNTS_LAST_LINE);
+			if (linesOnly) {
+				//same as processStream, only lines are counted
+				counts[0] = 0L;
+				counts[1] = 0L;
+			}
+			return counts;
+		} catch (InterruptedException e) {
+			cancelled.set(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Counting was interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
 	public void updateCounts(long[] data) {
 		wordCount = data[0];
 		charCount = data[1];
@@ -167,34 +342,130 @@ public class WordCountCommand implements CommandInterface, Callable {
 		try {
 			in = new FileInputStream(new File(s));
 		} catch (Exception e) {
-			System.out.println("Could not open " + s + ".");
+			out.println("Could not open " + s + ".");
 			isError = true;
 		}
 		return in;
 	}
 
-	private void count(String s) {
-		isWorking = true;
-		InputStream in;
-		if (!s.contains(CurrentDirectory.SEPARATOR)) {
-			in = openFile(currentDirectory.toString() + currentDirectory.SEPARATOR + s);
-		} else {
-			in = openFile(s);
+	/**
+	 * Counts one file on the wc pool.
+	 * <p>
+	 * Cancelling the returned future interrupts the count, which stops
+	 * at the next block of the file instead of reading it to the end.
+	 *
+	 * @param fileName The file, relative to the current directory unless it contains a separator
+	 * @return [0] = words, [1] = chars, [2] = lines once the file is counted
+	 */
+	public CompletableFuture<long[]> countAsync(String fileName) {
+		String path = resolve(fileName);
+		CountFuture future = new CountFuture();
+		future.task = COUNT_POOL.submit(() -> {
+			try {
+				future.complete(countFile(path));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		if (future.isCancelled()) {
+			//cancelled before the task was known
+			future.task.cancel(true);
 		}
-		long[] results;
-		try {
-			results = processStream(in);
-			updateCounts(results);
-		} catch (Exception e) {
-			System.out.println("An error occurred when processing the stream.");
-			isError = true;
+		return future;
+	}
+
+	/**
+	 * Stops every count that is still running.
+	 */
+	public void cancel() {
+		pending.forEach(f -> f.cancel(true));
+	}
+
+	/**
+	 * Waits for the started counts in argument order and keeps one row
+	 * per file, so messages and rows never depend on which file
+	 * happened to finish first.
+	 *
+	 * @param deadline System.nanoTime() to give up at, Long.MAX_VALUE to wait for ever
+	 * @throws TimeoutException if the deadline passed, every count is cancelled
+	 */
+	private void collect(long deadline) throws TimeoutException {
+		if (pending.isEmpty()) {
 			return;
 		}
-		isDone = true;
+		long[] total = new long[3];
+		for (int i = 0; i < pending.size(); i++) {
+			long[] counts;
+			try {
+				if (deadline == Long.MAX_VALUE) {
+					counts = pending.get(i).get();
+				} else {
+					counts = pending.get(i).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof FileNotFoundException) {
+					out.println("Could not open " + resolve(pendingNames.get(i)) + ".");
+				}
+				out.println("An error occurred when processing the stream.");
+				isError = true;
+				continue;
+			} catch (CancellationException e) {
+				out.println("Counting " + pendingNames.get(i) + " was cancelled.");
+				isError = true;
+				continue;
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				isError = true;
+				break;
+			} catch (TimeoutException e) {
+				cancel();
+				pending.clear();
+				pendingNames.clear();
+				isError = true;
+				throw e;
+			}
+			rowNames.add(pendingNames.get(i));
+			rowCounts.add(counts);
+			for (int k = 0; k < total.length; k++) {
+				total[k] += counts[k];
+			}
+		}
+		pending.clear();
+		pendingNames.clear();
+		if (!rowCounts.isEmpty()) {
+			updateCounts(total);
+		}
 	}
 
+	private String resolve(String s) {
+		return s.contains(CurrentDirectory.SEPARATOR) ? s : currentDirectory.toString() + CurrentDirectory.SEPARATOR + s;
+	}
+
+	/**
+	 * Counts one file without touching any state of this command,
+	 * so it is safe to run for several files at once.
+	 */
+	private long[] countFile(String path) throws Exception {
+		File file = new File(path);
+		if (file.isFile() && file.length() >= MAPPED_THRESHOLD && WordCountKernel.forCharset(charset) != null) {
+			try {
+				return processMapped(file);
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				//fall back to the stream
+			}
+		}
+		try (InputStream in = new FileInputStream(file)) {
+			return processStream(in);
+		}
+	}
 
 	private String format() {
+		if (rowCounts.size() > 1) {
+			return formatRows();
+		}
 		StringBuilder sb = new StringBuilder();
 		if (printWords) {
 			sb.append("Words: ").append(wordCount).append(".\n");
@@ -208,6 +479,42 @@ public class WordCountCommand implements CommandInterface, Callable {
 		return sb.toString();
 	}
 
+	/**
+	 * One row per file followed by a total,
+	 * with a column for every count that was asked for.
+	 */
+	private String formatRows() {
+		StringBuilder sb = new StringBuilder();
+		if (printWords) {
+			sb.append("Words\t");
+		}
+		if (printChars) {
+			sb.append("Characters\t");
+		}
+		if (printLines) {
+			sb.append("Lines\t");
+		}
+		sb.append("File\n");
+		for (int i = 0; i < rowCounts.size(); i++) {
+			appendRow(sb, rowCounts.get(i), rowNames.get(i));
+		}
+		appendRow(sb, new long[]{wordCount, charCount, newlineCount}, "total");
+		return sb.toString();
+	}
+
+	private void appendRow(StringBuilder sb, long[] counts, String name) {
+		if (printWords) {
+			sb.append(counts[0]).append('\t');
+		}
+		if (printChars) {
+			sb.append(counts[1]).append('\t');
+		}
+		if (printLines) {
+			sb.append(counts[2]).append('\t');
+		}
+		sb.append(name).append('\n');
+	}
+
 	@Override
 	public String help() {
 		String s;
@@ -221,14 +528,29 @@ public class WordCountCommand implements CommandInterface, Callable {
 
 	/**
 	 * Computes a result, or throws an exception if unable to do so.
+	 * Blocks until every started count is done.
 	 *
 	 * @return computed result
 	 * @throws Exception if unable to compute a result
 	 */
 	@Override
 	public Object call() throws Exception {
-		while (!isDone) {
+		collect(Long.MAX_VALUE);
+		return result();
+	}
+
+	/**
+	 * Like {@link #call()}, but gives up after the timeout.
+	 *
+	 * @throws TimeoutException if counting took too long, the counts are cancelled
+	 */
+	public Object call(long timeout, TimeUnit unit) throws Exception {
+		collect(System.nanoTime() + unit.toNanos(timeout));
+		return result();
+	}
 
+	private Object result() {
+		if (!isDone) {
 			//do not return
 			//unless printing help
 			if (helpMode) {
@@ -238,12 +560,27 @@ public class WordCountCommand implements CommandInterface, Callable {
 			if (isError) {
 				return "Exiting wc.\n";
 			}
-			if (!isWorking) {
-				return "No valid input. Run wc help for more information.\n";
-			}
+			return "No valid input. Run wc help for more information.\n";
 		}
 
 		return format();
 	}
 
+	/**
+	 * Makes cancelling the future interrupt the thread counting the file.
+	 */
+	private static final class CountFuture extends CompletableFuture<long[]> {
+		private volatile Future<?> task;
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			Future<?> running = task;
+			if (running != null) {
+				running.cancel(true);
+			}
+			return cancelled;
+		}
+	}
+
 }
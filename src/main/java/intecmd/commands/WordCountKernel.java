@@ -0,0 +1,386 @@
+package intecmd.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level counterpart of {@link WordCountCommand#processStream}.
+ * <p>
+ * Counts words, 16-bit characters and lines straight from encoded
+ * bytes so that no {@link java.io.Reader} is needed. The results follow
+ * the same rules as the char based path: whitespace as defined by
+ * {@link Character#isWhitespace(int)}, and \n, \r and \r\n each count as
+ * one line terminator which in turn counts as one character
+ * (just like {@link java.io.LineNumberReader} compresses them).
+ * <p>
+ * A region is counted as if it was preceded by whitespace. Every
+ * {@link Tally} remembers how it starts and ends, so counts of adjacent
+ * regions can be stitched together with {@link Tally#merge(Tally)}
+ * without rescanning the boundary.
+ */
+final class WordCountKernel {
+
+	private static final int REPLACEMENT = 0xFFFD;
+	private static final boolean[] ASCII_WHITESPACE = new boolean[128];
+
+	static {
+		for (int c = 0; c < 128; c++) {
+			ASCII_WHITESPACE[c] = Character.isWhitespace(c);
+		}
+	}
+
+	/**
+	 * Newer JDKs let {@link java.io.LineNumberReader} count a last line
+	 * that has no terminator, older ones do not. The kernel follows
+	 * whatever the reader used by the char based path does.
+	 */
+	static final boolean COUNTS_LAST_LINE = countsLastLine();
+
+	/**
+	 * Size of the blocks read from a stream.
+	 */
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	private final boolean utf8;
+
+	private WordCountKernel(boolean utf8) {
+		this.utf8 = utf8;
+	}
+
+	private static boolean countsLastLine() {
+		try (LineNumberReader reader = new LineNumberReader(new StringReader("x"))) {
+			while (reader.read() != -1) {
+				//read to EOF
+			}
+			return reader.getLineNumber() == 1;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return a kernel for the charset, or null if the charset
+	 * has to go through the decoding path
+	 */
+	static WordCountKernel forCharset(Charset charset) {
+		if (StandardCharsets.UTF_8.equals(charset)) {
+			return new WordCountKernel(true);
+		}
+		if (StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset)) {
+			//one byte is one char, and nothing above 0x7F is whitespace
+			return new WordCountKernel(false);
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if a region may start at this byte,
+	 * i.e. it is not in the middle of an encoded character
+	 */
+	boolean isBoundary(byte b) {
+		return !utf8 || (b & 0xC0) != 0x80;
+	}
+
+	/**
+	 * Counts a whole stream block by block. A character cut in two by
+	 * the end of a block is carried over to the next block, so only
+	 * complete characters are ever scanned.
+	 *
+	 * @param linesOnly if only line terminators need to be counted
+	 * @throws InterruptedIOException if the thread is interrupted between blocks
+	 */
+	Tally count(InputStream in, boolean linesOnly) throws IOException {
+		byte[] block = new byte[BLOCK_SIZE];
+		ByteBuffer view = ByteBuffer.wrap(block);
+		Tally total = new Tally();
+		int carry = 0;
+		int n;
+		while ((n = in.read(block, carry, block.length - carry)) != -1) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("Counting was interrupted.");
+			}
+			int end = carry + n;
+			int cut = linesOnly ? end : completeLength(block, end);
+			total = total.merge(linesOnly ? scanLines(view, 0, cut) : scan(view, 0, cut));
+			carry = end - cut;
+			System.arraycopy(block, cut, block, 0, carry);
+		}
+		if (carry > 0) {
+			//truncated at EOF, the decoder would report it as malformed
+			total = total.merge(scan(view, 0, carry));
+		}
+		return total;
+	}
+
+	/**
+	 * @return the length of the longest prefix of block[0, end)
+	 * that does not end in the middle of a character
+	 */
+	private int completeLength(byte[] block, int end) {
+		if (!utf8) {
+			return end;
+		}
+		for (int k = 1; k <= 3 && end - k >= 0; k++) {
+			int b = block[end - k] & 0xFF;
+			if (b < 0x80) {
+				return end;
+			}
+			if (b >= 0xC0) {
+				return end - k + expectedLength(b) <= end ? end : end - k;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Counts the bytes in [from, to) using absolute gets,
+	 * the position of the buffer is left untouched.
+	 */
+	Tally scan(ByteBuffer buf, int from, int to) {
+		Tally t = new Tally();
+		if (from >= to) {
+			return t;
+		}
+		long words = 0L;
+		long chars = 0L;
+		long lines = 0L;
+		boolean inWord = false;
+		boolean prevCr = false;
+		boolean first = true;
+		t.empty = false;
+		t.startsWithLf = buf.get(from) == '\n';
+
+		int i = from;
+		while (i < to) {
+			int b = buf.get(i) & 0xFF;
+			if (b < 0x80) {
+				i++;
+				if (b == '\n' && prevCr) {
+					//second half of \r\n, already counted
+					prevCr = false;
+					continue;
+				}
+				prevCr = b == '\r';
+				chars++;
+				if (b == '\n' || b == '\r') {
+					lines++;
+					inWord = false;
+				} else if (ASCII_WHITESPACE[b]) {
+					inWord = false;
+				} else if (!inWord) {
+					inWord = true;
+					words++;
+				}
+			} else {
+				prevCr = false;
+				int codePoint = REPLACEMENT;
+				int length = 1;
+				if (utf8) {
+					length = sequenceLength(buf, i, to);
+					if (length > 0) {
+						codePoint = decode(buf, i, length);
+					} else {
+						//malformed, the whole sequence becomes one replacement
+						length = -length;
+					}
+				}
+				i += length;
+				chars += Character.charCount(codePoint);
+				if (Character.isWhitespace(codePoint)) {
+					inWord = false;
+				} else if (!inWord) {
+					inWord = true;
+					words++;
+				}
+			}
+			if (first) {
+				t.startsInWord = inWord;
+				first = false;
+			}
+		}
+		t.words = words;
+		t.chars = chars;
+		t.lines = lines;
+		t.endsInWord = inWord;
+		t.endsWithCr = prevCr;
+		t.endsWithTerminator = isTerminator(buf.get(to - 1));
+		return t;
+	}
+
+	/**
+	 * Counts only line terminators in [from, to). Continuation bytes of
+	 * UTF-8 can never be \r or \n so no decoding is needed at all.
+	 */
+	Tally scanLines(ByteBuffer buf, int from, int to) {
+		Tally t = new Tally();
+		if (from >= to) {
+			return t;
+		}
+		long lines = 0L;
+		boolean prevCr = false;
+		for (int i = from; i < to; i++) {
+			byte b = buf.get(i);
+			if (b == '\n') {
+				if (!prevCr) {
+					lines++;
+				}
+				prevCr = false;
+			} else if (b == '\r') {
+				lines++;
+				prevCr = true;
+			} else {
+				prevCr = false;
+			}
+		}
+		t.empty = false;
+		t.lines = lines;
+		t.startsWithLf = buf.get(from) == '\n';
+		t.endsWithCr = prevCr;
+		t.endsWithTerminator = isTerminator(buf.get(to - 1));
+		return t;
+	}
+
+	private static boolean isTerminator(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	private static int expectedLength(int lead) {
+		if (lead >= 0xF0 && lead <= 0xF4) {
+			return 4;
+		}
+		if (lead >= 0xE0) {
+			return lead <= 0xEF ? 3 : 1;
+		}
+		if (lead >= 0xC2) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Measures the character at {@code at} the way the JDK UTF-8 decoder
+	 * does. A malformed sequence is the lead byte plus the continuation
+	 * bytes after it that could still belong to a valid character, and
+	 * the decoder replaces all of it with a single U+FFFD. A surrogate
+	 * encoded in three bytes is one malformed sequence as well.
+	 * <p>
+	 * The limit is treated like a byte that is not a continuation. Regions
+	 * only end before such a byte or at the end of the input, and the
+	 * decoder replaces a sequence cut short by the end of the input with a
+	 * single U+FFFD too, so both cases count the same.
+	 *
+	 * @return the length of the character, or minus the length of
+	 * a malformed sequence
+	 */
+	private static int sequenceLength(ByteBuffer buf, int at, int limit) {
+		int lead = buf.get(at) & 0xFF;
+		int length = expectedLength(lead);
+		if (length == 1) {
+			return -1;
+		}
+		int valid = 1;
+		while (valid < length && at + valid < limit) {
+			int b = buf.get(at + valid) & 0xFF;
+			if ((b & 0xC0) != 0x80 || (valid == 1 && !fitsLead(lead, b))) {
+				break;
+			}
+			valid++;
+		}
+		if (valid < length) {
+			return -valid;
+		}
+		if (lead == 0xED && (buf.get(at + 1) & 0xFF) >= 0xA0) {
+			//a surrogate
+			return -length;
+		}
+		return length;
+	}
+
+	/**
+	 * @return false if the second byte makes the sequence overlong
+	 * or beyond U+10FFFF
+	 */
+	private static boolean fitsLead(int lead, int second) {
+		switch (lead) {
+			case 0xE0:
+				return second >= 0xA0;
+			case 0xF0:
+				return second >= 0x90;
+			case 0xF4:
+				return second < 0x90;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * @param length the length of a well formed character
+	 */
+	private static int decode(ByteBuffer buf, int at, int length) {
+		int codePoint = buf.get(at) & (0xFF >> (length + 1));
+		for (int k = 1; k < length; k++) {
+			codePoint = (codePoint << 6) | (buf.get(at + k) & 0x3F);
+		}
+		return codePoint;
+	}
+
+	/**
+	 * Partial counts of one region plus what is needed to
+	 * join it with its neighbours.
+	 */
+	static final class Tally {
+		long words;
+		long chars;
+		long lines;
+		boolean empty = true;
+		boolean startsInWord;
+		boolean endsInWord;
+		boolean startsWithLf;
+		boolean endsWithCr;
+		boolean endsWithTerminator;
+
+		/**
+		 * @param next the region directly following this one
+		 * @return the counts of both regions as one
+		 */
+		Tally merge(Tally next) {
+			if (empty) {
+				return next;
+			}
+			if (next.empty) {
+				return this;
+			}
+			Tally t = new Tally();
+			t.empty = false;
+			boolean splitWord = endsInWord && next.startsInWord;
+			boolean splitCrLf = endsWithCr && next.startsWithLf;
+			t.words = words + next.words - (splitWord ? 1 : 0);
+			t.chars = chars + next.chars - (splitCrLf ? 1 : 0);
+			t.lines = lines + next.lines - (splitCrLf ? 1 : 0);
+			t.startsInWord = startsInWord;
+			t.startsWithLf = startsWithLf;
+			t.endsInWord = next.endsInWord;
+			t.endsWithCr = next.endsWithCr;
+			t.endsWithTerminator = next.endsWithTerminator;
+			return t;
+		}
+
+		/**
+		 * @param countLastLine whether an unterminated last line
+		 * counts as a line, see {@link WordCountKernel#COUNTS_LAST_LINE}
+		 */
+		long[] toArray(boolean countLastLine) {
+			long total = lines;
+			if (countLastLine && !empty && !endsWithTerminator) {
+				total++;
+			}
+			return new long[]{words, chars, total};
+		}
+	}
+}
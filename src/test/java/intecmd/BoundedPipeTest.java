@@ -0,0 +1,71 @@
+package intecmd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedPipeTest {
+
+    @Test
+    public void bytesShouldComeOutInTheOrderTheyWentIn() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(7);
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        Thread writer = new Thread(() -> {
+            try (OutputStream out = pipe.sink()) {
+                for (int i = 0; i < data.length; i += 13)
+                    out.write(data, i, Math.min(13, data.length - i));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        byte[] read = new byte[data.length];
+        InputStream in = pipe.source();
+        int total = 0;
+        int n;
+        while ((n = in.read(read, total, Math.min(5, read.length - total))) > 0)
+            total += n;
+        writer.join();
+        assertEquals(-1, in.read());
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void aWriterShouldWaitWhileThePipeIsFull() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(4);
+        AtomicInteger written = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 8; i++) {
+                    pipe.sink().write(i);
+                    written.incrementAndGet();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        writer.join(500);
+        assertTrue(writer.isAlive());
+        assertEquals(4, written.get());
+        assertEquals(4, pipe.source().read(new byte[4], 0, 4));
+        writer.join(5000);
+        assertEquals(8, written.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void writingShouldFailOnceNothingReads() throws IOException {
+        BoundedPipe pipe = new BoundedPipe(4);
+        pipe.source().close();
+        pipe.sink().write(1);
+    }
+}
@@ -8,12 +8,15 @@ import org.junit.Test;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 
@@ -74,6 +77,17 @@ public class CmdTest {
         assertEquals("No files with that name", outContent.toString().trim());
     }
 
+    @Test
+    public void grepShouldKeepItsOptionsWhenRunFromTheShell() throws IOException {
+        Files.write(Paths.get("cmdGrep.txt"), "abc\nxyz".getBytes("utf-8"));
+        try {
+            cmd.commandSwitch(new String[]{"grep", "-E", "^a.c$", "cmdGrep.txt"});
+            assertEquals("^a.c$", outContent.toString().trim());
+        } finally {
+            Files.delete(Paths.get("cmdGrep.txt"));
+        }
+    }
+
     @Test
     public void theLsCommandShouldBeExecuted() {
         cmd.commandSwitch(lsCommandArray);
@@ -81,7 +95,12 @@ public class CmdTest {
                 "\n-f show all files in the current folder" +
                 "\n-fl lists all files in the current folder" +
                 "\n-d show all directories in the current folder" +
-                "\n-ld lists all directories in the current folder";
+                "\n-ld lists all directories in the current folder" +
+                "\n-s sorts by size, largest first, together with any of the above" +
+                "\n-t sorts by modification time, newest first, together with any of the above" +
+                "\n-U lists only the names, as they are read, for very large folders" +
+                "\n-N lists only the names, sorted, for very large folders" +
+                "\n-p N with -U or -N lists only page N, 1000 names to a page";
         assertEquals(expectedOutput, outContent.toString().trim());
     }
 
@@ -90,4 +109,124 @@ public class CmdTest {
         cmd.commandSwitch(wcCommandArray);
         assertEquals("Lines: 59.", outContent.toString().trim());
     }
+
+    @Test
+    public void theTokenizerShouldSplitAtUnquotedPipes() {
+        assertEquals(5, cmd.tokenizeString("cat a.txt|wc -l").length);
+        assertEquals(2, cmd.tokenizeString("grep \"a|b\"").length);
+    }
+
+    @Test
+    public void aPipelineShouldPassTheOutputOfEachCommandToTheNext() {
+        cmd.commandSwitch(cmd.tokenizeString("cat pom.xml | grep -n artifactId | wc -l"));
+        assertEquals("Lines: 7.", outContent.toString().trim());
+    }
+
+    @Test
+    public void aQuotedPipeShouldBeAnArgument() {
+        cmd.commandSwitch(cmd.parse("echo \"|\""));
+        assertEquals("|", outContent.toString().trim());
+        outContent.reset();
+        cmd.commandSwitch(cmd.parse("echo 'a|b' | grep -n '|'"));
+        assertEquals("1:a|b", outContent.toString().trim());
+    }
+
+    @Test
+    public void aQuotedAmpersandShouldNotStartAJob() {
+        assertEquals(0, cmd.execute(cmd.parse("echo \"&\""), System.out));
+        assertEquals(lines("&"), outContent.toString());
+    }
+
+    @Test
+    public void aPipelineShouldStopEarlierCommandsWhenALaterOneIsDone() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 200000; i++)
+            lines.append("line ").append(i).append('\n');
+        File big = File.createTempFile("pipeline", ".txt");
+        try {
+            Files.write(big.toPath(), lines.toString().getBytes("utf-8"));
+            cmd.commandSwitch(new String[]{"cat", big.getAbsolutePath(), "|", "grep", "-m", "1", "line 5", "|", "wc", "-w"});
+            assertEquals("Words: 2.", outContent.toString().trim());
+        } finally {
+            big.delete();
+        }
+    }
+
+    @Test
+    public void anUnknownCommandInAPipelineShouldBeReported() {
+        cmd.commandSwitch(cmd.tokenizeString("nope | wc"));
+        assertEquals("Unrecognized command nope", outContent.toString().trim());
+    }
+
+    @Test
+    public void aRegisteredCommandShouldRunAloneAndInAPipeline() {
+        cmd.registry().register("shout", () -> new CommandInterface() {
+            @Override
+            public String help() {
+                return "shout";
+            }
+
+            @Override
+            public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+                out.println(args[1].toUpperCase() + "!");
+                return SUCCESS;
+            }
+        });
+        cmd.commandSwitch(new String[]{"shout", "hello"});
+        assertEquals("HELLO!", outContent.toString().trim());
+        outContent.reset();
+        cmd.commandSwitch(cmd.tokenizeString("shout hello | grep HELLO"));
+        assertEquals("HELLO", outContent.toString().trim());
+    }
+
+    private static String lines(String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines)
+            text.append(line).append(System.lineSeparator());
+        return text.toString();
+    }
+
+    @Test
+    public void aBackgroundJobShouldPrintItsOutputWhenWaitedFor() {
+        assertEquals(0, cmd.execute(cmd.tokenizeString("echo hello&"), System.out));
+        assertEquals(0, cmd.execute(cmd.tokenizeString("wait %1"), System.out));
+        assertEquals(lines("[1]", "[1] Done echo hello", "hello"), outContent.toString());
+    }
+
+    @Test
+    public void aBackgroundJobShouldNotMoveTheSession() {
+        String directory = new CurrentDirectory().toString();
+        cmd.execute(cmd.tokenizeString("cd src &"), System.out);
+        cmd.execute(cmd.tokenizeString("wait"), System.out);
+        assertEquals(directory, new CurrentDirectory().toString());
+    }
+
+    @Test
+    public void killingAJobShouldStopItsCommand() throws Exception {
+        File followed = File.createTempFile("job", ".txt");
+        try {
+            Files.write(followed.toPath(), "first\n".getBytes("utf-8"));
+            cmd.execute(new String[]{"cat", "-f", followed.getAbsolutePath(), "&"}, System.out);
+            cmd.execute(cmd.tokenizeString("jobs"), System.out);
+            assertEquals(0, cmd.execute(cmd.tokenizeString("kill %1"), System.out));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (following() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertFalse(following());
+            cmd.execute(cmd.tokenizeString("jobs"), System.out);
+            assertEquals(lines("[1]", "[1] Running cat -f " + followed.getAbsolutePath(),
+                    "[1] Killed cat -f " + followed.getAbsolutePath()), outContent.toString());
+            assertEquals(Cmd.FAILURE, cmd.execute(cmd.tokenizeString("kill %1"), System.out));
+        } finally {
+            followed.delete();
+        }
+    }
+
+    private static boolean following() {
+        for (StackTraceElement[] stack : Thread.getAllStackTraces().values())
+            for (StackTraceElement frame : stack)
+                if (frame.getClassName().endsWith("FollowingInputStream"))
+                    return true;
+        return false;
+    }
 }
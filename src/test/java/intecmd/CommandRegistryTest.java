@@ -0,0 +1,50 @@
+package intecmd;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandRegistryTest {
+
+    @Test
+    public void theBuiltinsShouldBeRegistered() {
+        CommandRegistry registry = CommandRegistry.withBuiltins();
+        for (String name : new String[]{"ls", "cd", "grep", "wc", "cat", "mkdir"})
+            assertTrue(name, registry.names().contains(name));
+    }
+
+    @Test
+    public void aCommandShouldBeCreatedOnceWhenFirstAskedFor() {
+        AtomicInteger created = new AtomicInteger();
+        CommandRegistry registry = new CommandRegistry().register("x", () -> {
+            created.incrementAndGet();
+            return new CommandInterface() {
+                @Override
+                public String help() {
+                    return "x";
+                }
+
+                @Override
+                public int execute(String[] args, InputStream in, PrintStream out, Context ctx) {
+                    return SUCCESS;
+                }
+            };
+        });
+        assertEquals(0, created.get());
+        CommandInterface first = registry.get("x");
+        assertSame(first, registry.get("x"));
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void anUnknownNameShouldGiveNull() {
+        assertNull(CommandRegistry.withBuiltins().get("nope"));
+    }
+}
@@ -6,8 +6,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class ConcatenateCommandTest {
 	private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
@@ -24,7 +28,7 @@ public class ConcatenateCommandTest {
 	@Test
 	public void helpShouldDisplay() {
 		cat.in(new String[]{"help"});
-		assertEquals("cat - concatenate two more files and send to standard out.\nFlags: -u\t\tDo not buffer stream.\n", outContent.toString().replaceAll("\\r\\n", "\n"));
+		assertEquals("cat - concatenate two more files and send to standard out.\nFlags: -u\t\tDo not buffer stream.\n       -f\t\tKeep printing what gets appended to the last file.\n", outContent.toString().replaceAll("\\r\\n", "\n"));
 	}
 	@Test
 	public void theTwoInputsShouldConcatenate() throws IOException {
@@ -58,6 +62,66 @@ public class ConcatenateCommandTest {
 		assertEquals("this should appear", outContent.toString());
 	}
 
+	@Test
+	public void filesShouldBeCopiedToTheOutputChannel() throws IOException {
+		File input = File.createTempFile("cat", ".txt");
+		File output = File.createTempFile("cat", ".out");
+		byte[] content = new byte[300 * 1024];
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) (i % 251);
+		try (FileOutputStream fos = new FileOutputStream(input)) {
+			fos.write(content);
+		}
+		for (boolean terminal : new boolean[]{false, true}) {
+			try (FileOutputStream fos = new FileOutputStream(output)) {
+				PrintStream channelOut = new PrintStream(fos);
+				System.setOut(channelOut);
+				StandardOutput.install(channelOut, fos.getChannel(), terminal);
+				channelOut.print("before ");
+				new ConcatenateCommand().in(new String[]{"cat", input.getAbsolutePath()});
+				channelOut.print(" after");
+				channelOut.flush();
+			} finally {
+				StandardOutput.install(oldOut, null, false);
+				System.setOut(new PrintStream(outContent));
+			}
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			expected.write("before ".getBytes());
+			expected.write(content);
+			expected.write(" after".getBytes());
+			assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output.toPath()));
+		}
+		input.delete();
+		output.delete();
+	}
+
+	@Test
+	public void theFollowFlagShouldKeepPrintingAppendedBytes() throws Exception {
+		File log = File.createTempFile("cat", ".log");
+		Files.write(log.toPath(), "first\n".getBytes());
+		Thread follower = new Thread(() -> new ConcatenateCommand().in(new String[]{"cat", "-f", log.getAbsolutePath()}));
+		follower.start();
+		try {
+			awaitOutput("first\n");
+			Files.write(log.toPath(), "second\n".getBytes(), StandardOpenOption.APPEND);
+			awaitOutput("first\nsecond\n");
+		} finally {
+			follower.interrupt();
+			follower.join(5000);
+			log.delete();
+		}
+		assertFalse(follower.isAlive());
+	}
+
+	private void awaitOutput(String expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!outContent.toString().equals(expected)) {
+			if (System.currentTimeMillis() > deadline)
+				throw new AssertionError("Expected " + expected + " but was " + outContent);
+			Thread.sleep(20);
+		}
+	}
+
 	@After
 	public void tearDownTests(){
 		System.setOut(oldOut);
@@ -0,0 +1,73 @@
+package intecmd;
+
+import intecmd.commands.DirectoryCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final DirectoryCache cache = new DirectoryCache(2);
+
+    @Test
+    public void aListingShouldBeReadOnce() throws IOException {
+        temporaryFolder.newFile("a.txt");
+        temporaryFolder.newFolder("dir");
+        DirectoryCache.Listing listing = cache.list(temporaryFolder.getRoot());
+        assertEquals(1, listing.files().size());
+        assertEquals(1, listing.directories().size());
+        assertSame(listing, cache.list(temporaryFolder.getRoot()));
+    }
+
+    @Test
+    public void aChangedDirectoryShouldBeReadAgain() throws Exception {
+        DirectoryCache.Listing listing = cache.list(temporaryFolder.getRoot());
+        assertEquals(0, listing.files().size());
+        temporaryFolder.newFile("a.txt");
+        long deadline = System.currentTimeMillis() + 20000;
+        while (cache.list(temporaryFolder.getRoot()).files().isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, cache.list(temporaryFolder.getRoot()).files().size());
+    }
+
+    @Test
+    public void anInvalidatedListingShouldBeReadAgain() throws IOException {
+        DirectoryCache.Listing listing = cache.list(temporaryFolder.getRoot());
+        temporaryFolder.newFile("a.txt");
+        cache.invalidate(temporaryFolder.getRoot());
+        DirectoryCache.Listing again = cache.list(temporaryFolder.getRoot());
+        assertNotSame(listing, again);
+        assertEquals(1, again.files().size());
+    }
+
+    @Test
+    public void theLeastRecentlyListedDirectoryShouldBeDropped() throws IOException {
+        File first = temporaryFolder.newFolder("first");
+        File second = temporaryFolder.newFolder("second");
+        File third = temporaryFolder.newFolder("third");
+        DirectoryCache.Listing listing = cache.list(first);
+        cache.list(second);
+        cache.list(first);
+        cache.list(third);
+        assertEquals(2, cache.size());
+        assertSame(listing, cache.list(first));
+    }
+
+    @Test
+    public void aNewDirectoryShouldBeFoundBeforeTheCacheHearsOfIt() throws IOException {
+        cache.list(temporaryFolder.getRoot());
+        temporaryFolder.newFolder("fresh");
+        assertTrue(cache.containsDirectory(temporaryFolder.getRoot(), "fresh"));
+    }
+}
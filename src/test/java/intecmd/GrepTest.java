@@ -2,17 +2,26 @@ package intecmd;
 
 import intecmd.commands.GrepCommand;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class GrepTest {
 
@@ -27,9 +36,18 @@ public class GrepTest {
     private static final String[] MULTIPLE_HITS_ARRAY = {"grep", "multiple", "*.txt"};
     private static final String[] SAME_FILE_MULTIPLE_HITS_ARRAY = {"grep", "two", "twoHits.txt"};
     private static final String[] UNSUPPORTED_ARRAY = {"grep", "test", "unsupported.exe"};
+    private static final String[] REGEX_ARRAY = {"grep", "-E", "^t.st$", "test.txt"};
+    private static final String[] INVALID_REGEX_ARRAY = {"grep", "-E", "t(st", "test.txt"};
+    private static final String[] LONG_LINES_ARRAY = {"grep", "needle", "longLines.txt"};
+    private static final String[] RECURSIVE_ARRAY = {"grep", "-r", "needle", "*.txt"};
+    private static final String[] LINE_NUMBERS_ARRAY = {"grep", "-n", "needle", "longLines.txt"};
+    private static final String[] REGEX_LINE_NUMBERS_ARRAY = {"grep", "-n", "-E", "ne+dle$", "longLines.txt"};
     private CurrentDirectory currentDirectory;
     private GrepCommand grep;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setUp() {
         currentDirectory = new CurrentDirectory();
@@ -60,6 +78,16 @@ public class GrepTest {
             printWriter = new PrintWriter("twoHits.txt", "utf-8");
             printWriter.write(multipleHitsSameFile);
             printWriter.close();
+            StringBuilder longLines = new StringBuilder();
+            for (int i = 0; i < 100000; i++)
+                longLines.append("hay");
+            longLines.append("needle needle\r\nneedle\rhay\r\n");
+            for (int i = 0; i < 100000; i++)
+                longLines.append("hay");
+            longLines.append("needle");
+            printWriter = new PrintWriter("longLines.txt", "utf-8");
+            printWriter.write(longLines.toString());
+            printWriter.close();
             File unsupportedFile = new File("unsupported.exe");
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -68,6 +96,7 @@ public class GrepTest {
 
     @After
     public void shutDown() {
+        currentDirectory.setCurrentDirectory(USER_DIRECTORY);
         try {
             Files.deleteIfExists(Paths.get("test.txt"));
             Files.deleteIfExists(Paths.get("anotherTest.txt"));
@@ -76,6 +105,8 @@ public class GrepTest {
             Files.deleteIfExists(Paths.get("mulTwo.txt"));
             Files.deleteIfExists(Paths.get("twoHits.txt"));
             Files.deleteIfExists(Paths.get("unsupported.exe"));
+            Files.deleteIfExists(Paths.get("longLines.txt"));
+            Files.deleteIfExists(Paths.get("noNewline.txt"));
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
@@ -108,7 +139,9 @@ public class GrepTest {
     @Test
     public void grepCommandFollowedByHelpCommandShouldReturnTheCorrectString() {
         grep = new GrepCommand(HELP_TOKEN_ARRAY);
-        assertEquals("test help", grep.help());
+        assertTrue(grep.help().startsWith("grep - searches .txt files for a pattern."));
+        for (String flag : new String[]{"-E", "-r", "-n", "-m N", "-l", "-c", "--index", "-f"})
+            assertTrue(flag, grep.help().contains("\n" + flag + "\t"));
     }
 
     @Test
@@ -158,4 +191,246 @@ public class GrepTest {
         grep = new GrepCommand(UNSUPPORTED_ARRAY);
         assertEquals("Unsupported file format", grep.executeSearch(UNSUPPORTED_ARRAY));
     }
+
+    @Test
+    public void matchesInLinesLongerThanTheReadBufferShouldBeFoundOncePerLine() {
+        grep = new GrepCommand(LONG_LINES_ARRAY);
+        assertEquals("needleneedleneedle", grep.executeSearch(LONG_LINES_ARRAY));
+    }
+
+    @Test
+    public void theRegexFlagShouldMatchLinesAgainstAnExpression() {
+        grep = new GrepCommand(REGEX_ARRAY);
+        assertEquals("^t.st$", grep.executeSearch(REGEX_ARRAY));
+    }
+
+    @Test
+    public void anInvalidRegexShouldReturnErrorMessage() {
+        grep = new GrepCommand(INVALID_REGEX_ARRAY);
+        assertEquals("Invalid regular expression: Unclosed group", grep.executeSearch(INVALID_REGEX_ARRAY));
+    }
+
+    @Test
+    public void theRecursiveFlagShouldSearchSubdirectoriesAndSurviveLinkCycles() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File subdirectory = temporaryFolder.newFolder("sub", "deeper");
+        Files.write(new File(root, "top.txt").toPath(), "needle".getBytes("utf-8"));
+        Files.write(new File(subdirectory, "deep.txt").toPath(), "hay\nneedle".getBytes("utf-8"));
+        Files.write(new File(subdirectory, "deep.log").toPath(), "needle".getBytes("utf-8"));
+        try {
+            Files.createSymbolicLink(new File(subdirectory, "loop").toPath(), root.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            //no links on this file system, the rest still applies
+        }
+        currentDirectory.setCurrentDirectory(root.getPath());
+        grep = new GrepCommand(RECURSIVE_ARRAY);
+        assertEquals("needleneedle", grep.executeSearch(RECURSIVE_ARRAY));
+    }
+
+    @Test
+    public void aFileThatCanNotBeReadShouldBeReportedOnOneLine() throws IOException {
+        File root = temporaryFolder.getRoot();
+        Files.write(new File(root, "a.txt").toPath(), "needle".getBytes("utf-8"));
+        temporaryFolder.newFolder("folder.txt");
+        currentDirectory.setCurrentDirectory(root.getPath());
+        String[] tokens = {"grep", "-n", "needle", "*.txt"};
+        grep = new GrepCommand(tokens);
+        assertEquals("a.txt:1:needle\nCould not read folder.txt", grep.executeSearch(tokens));
+    }
+
+    @Test
+    public void theRecursiveFlagShouldSkipFilesThatCanNotBeRead() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File locked = new File(root, "locked.txt");
+        Files.write(locked.toPath(), "needle".getBytes("utf-8"));
+        Files.write(new File(root, "open.txt").toPath(), "needle".getBytes("utf-8"));
+        Assume.assumeTrue(locked.setReadable(false) && !locked.canRead()); //root reads everything
+        currentDirectory.setCurrentDirectory(root.getPath());
+        grep = new GrepCommand(RECURSIVE_ARRAY);
+        assertEquals("needle", grep.executeSearch(RECURSIVE_ARRAY));
+    }
+
+    @Test
+    public void theLineNumberFlagShouldPrintNumberedMatchingLines() {
+        grep = new GrepCommand(CORRECT_TOKEN_ARRAY);
+        assertEquals("4:test", grep.executeSearch(new String[]{"grep", "-n", "test", "test.txt"}));
+    }
+
+    @Test
+    public void aMappedSearchShouldFindTheSameLinesAsAStreamedSearch() {
+        grep = new GrepCommand(LONG_LINES_ARRAY);
+        String streamed = grep.executeSearch(LINE_NUMBERS_ARRAY);
+        String streamedRegex = grep.executeSearch(REGEX_LINE_NUMBERS_ARRAY);
+        assertEquals(3, streamed.split("\n").length);
+        assertEquals(3, streamedRegex.split("\n").length);
+        for (long regionSize : new long[]{1, 7, 4096, 1 << 20}) {
+            grep.setMappedSearch(0, regionSize);
+            assertEquals("region size " + regionSize, streamed, grep.executeSearch(LINE_NUMBERS_ARRAY));
+            assertEquals("region size " + regionSize, streamedRegex, grep.executeSearch(REGEX_LINE_NUMBERS_ARRAY));
+            assertEquals("region size " + regionSize, "needleneedleneedle", grep.executeSearch(LONG_LINES_ARRAY));
+        }
+    }
+
+    @Test
+    public void aLineLongerThanARegionShouldBeSearchedAsAStream() throws IOException {
+        StringBuilder noNewline = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            noNewline.append("hay");
+        noNewline.append("needle");
+        Files.write(Paths.get("noNewline.txt"), noNewline.toString().getBytes("utf-8"));
+        String[] tokens = {"grep", "-c", "needle", "noNewline.txt"};
+        grep = new GrepCommand(tokens);
+        grep.setMappedSearch(0, 7, 4096);
+        assertEquals("1", grep.executeSearch(tokens));
+        grep = new GrepCommand(LINE_NUMBERS_ARRAY);
+        String streamed = grep.executeSearch(LINE_NUMBERS_ARRAY);
+        grep.setMappedSearch(0, 7, 4096);
+        assertEquals(streamed, grep.executeSearch(LINE_NUMBERS_ARRAY));
+    }
+
+    @Test
+    public void theMaxCountFlagShouldStopAfterThatManyMatchesPerFile() {
+        String[] tokens = {"grep", "-m", "1", "-n", "two", "*.txt"};
+        grep = new GrepCommand(tokens);
+        assertEquals("mulTwo.txt:3:two\ntwoHits.txt:1:two", grep.executeSearch(tokens));
+    }
+
+    @Test
+    public void theCountFlagShouldPrintTheNumberOfMatchingLinesPerFile() {
+        String[] tokens = {"grep", "-c", "two", "*.txt"};
+        grep = new GrepCommand(tokens);
+        String counts = grep.executeSearch(tokens);
+        assertTrue(counts.contains("mulOne.txt:0"));
+        assertTrue(counts.contains("mulTwo.txt:1"));
+        assertTrue(counts.contains("twoHits.txt:2"));
+    }
+
+    @Test
+    public void theFilesWithMatchesFlagShouldOnlyPrintFileNames() {
+        String[] tokens = {"grep", "-l", "multiple", "*.txt"};
+        grep = new GrepCommand(tokens);
+        assertEquals("mulOne.txt\nmulTwo.txt", grep.executeSearch(tokens));
+    }
+
+    @Test
+    public void anInvalidMaxCountShouldReturnErrorMessage() {
+        String[] tokens = {"grep", "-m", "none", "test", "test.txt"};
+        grep = new GrepCommand(tokens);
+        assertEquals("Invalid match count: none", grep.executeSearch(tokens));
+    }
+
+    @Test
+    public void searchShouldStreamTheResultsToTheOutput() throws IOException {
+        grep = new GrepCommand(MULTIPLE_HITS_ARRAY);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        grep.search(MULTIPLE_HITS_ARRAY, new PrintStream(bytes, true, "utf-8"));
+        assertEquals("multiplemultiple" + System.lineSeparator(), bytes.toString("utf-8"));
+    }
+
+    @Test
+    public void theMatchesOfAFileShouldBePrintedWhileItIsSearched() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File big = new File(root, "big.txt");
+        StringBuilder text = new StringBuilder("first needle\n");
+        for (int i = 0; i < 1 << 20; i++)
+            text.append("hay\n");
+        Files.write(big.toPath(), text.toString().getBytes("utf-8"));
+        currentDirectory.setCurrentDirectory(root.getPath());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        //a line appended when the first match comes out is only found if the search is still running
+        PrintStream out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (bytes.size() == 0)
+                    Files.write(big.toPath(), "late needle\n".getBytes("utf-8"), StandardOpenOption.APPEND);
+                bytes.write(b);
+            }
+        }, true, "utf-8");
+        grep = new GrepCommand();
+        grep.search(new String[]{"grep", "-n", "needle", "big.txt"}, out);
+        assertEquals("1:first needle\n1048578:late needle", bytes.toString("utf-8").trim());
+    }
+
+    @Test
+    public void theIndexFlagShouldFindTheSameLinesAndPickUpChangedFiles() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File changing = new File(root, "b.txt");
+        Files.write(new File(root, "a.txt").toPath(), "hay\nneedle\n".getBytes("utf-8"));
+        Files.write(changing.toPath(), "hay\n".getBytes("utf-8"));
+        Files.write(new File(root, "c.txt").toPath(), "needles\nhay".getBytes("utf-8"));
+        currentDirectory.setCurrentDirectory(root.getPath());
+        String[] tokens = {"grep", "--index", "-n", "needle", "*.txt"};
+        grep = new GrepCommand(tokens);
+        assertTrue(new File(root, ".grepindex").exists());
+        assertEquals("a.txt:2:needle\nc.txt:1:needles", grep.executeSearch(tokens));
+
+        Files.write(changing.toPath(), "hay\nmore hay\nneedle".getBytes("utf-8"));
+        assertEquals("a.txt:2:needle\nb.txt:3:needle\nc.txt:1:needles", grep.executeSearch(tokens));
+        String[] regex = {"grep", "--index", "-E", "-c", "needles?$", "*.txt"};
+        assertEquals("a.txt:1\nb.txt:1\nc.txt:1", grep.executeSearch(regex));
+
+        Files.write(new File(root, ".grepindex").toPath(), "garbage".getBytes("utf-8"));
+        assertEquals("a.txt:2:needle\nb.txt:3:needle\nc.txt:1:needles", grep.executeSearch(tokens));
+    }
+
+    @Test
+    public void theIndexShouldNotTrustAFileChangedWhenTheIndexWasWritten() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File changing = new File(root, "b.txt");
+        Files.write(changing.toPath(), "hay\nhay\n".getBytes("utf-8"));
+        long modified = changing.lastModified();
+        currentDirectory.setCurrentDirectory(root.getPath());
+        String[] tokens = {"grep", "--index", "needle", "b.txt"};
+        grep = new GrepCommand();
+        assertEquals("error message", grep.executeSearch(tokens));
+        File index = new File(root, ".grepindex");
+        assertTrue(index.exists());
+
+        //rewritten at the same size in the tick the index was written in
+        assertTrue(index.setLastModified(modified));
+        Files.write(changing.toPath(), "needle\n\n".getBytes("utf-8"));
+        assertTrue(changing.setLastModified(modified));
+        assertEquals("needle", grep.executeSearch(tokens));
+    }
+
+    @Test
+    public void theFollowFlagShouldPrintAppendedMatchesAcrossTruncationAndRotation() throws Exception {
+        File root = temporaryFolder.getRoot();
+        File log = new File(root, "log.txt");
+        Files.write(log.toPath(), "one needle\nhay\n".getBytes("utf-8"));
+        currentDirectory.setCurrentDirectory(root.getPath());
+        grep = new GrepCommand(new String[]{"grep", "needle", "log.txt"});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "utf-8");
+        Thread follower = new Thread(() -> grep.search(new String[]{"grep", "-f", "-n", "needle", "log.txt"}, out));
+        follower.start();
+        try {
+            awaitOutput(bytes, "1:one needle");
+            Files.write(log.toPath(), "two needle\npartial needle".getBytes("utf-8"), StandardOpenOption.APPEND);
+            awaitOutput(bytes, "3:two needle");
+            Thread.sleep(200);
+            assertFalse(bytes.toString("utf-8").contains("partial"));
+            Files.write(log.toPath(), " done\n".getBytes("utf-8"), StandardOpenOption.APPEND);
+            awaitOutput(bytes, "4:partial needle done");
+
+            Files.write(log.toPath(), "cut needle\n".getBytes("utf-8"));
+            awaitOutput(bytes, ":cut needle");
+            Files.move(log.toPath(), new File(root, "log.1").toPath());
+            Files.write(log.toPath(), "rotated needle\n".getBytes("utf-8"));
+            awaitOutput(bytes, ":rotated needle");
+        } finally {
+            follower.interrupt();
+            follower.join(5000);
+        }
+        assertFalse(follower.isAlive());
+    }
+
+    private static void awaitOutput(ByteArrayOutputStream bytes, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!bytes.toString("utf-8").contains(expected)) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("No \"" + expected + "\" in " + bytes.toString("utf-8"));
+            Thread.sleep(20);
+        }
+    }
 }
@@ -0,0 +1,39 @@
+package intecmd;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class JobsTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void outputPastTheLimitShouldBeDropped() throws Exception {
+        Jobs jobs = new Jobs(10);
+        jobs.start("spam", out -> {
+            for (int i = 0; i < 100; i++)
+                out.print("0123456789");
+            return 0;
+        });
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        assertEquals(0, jobs.await(new String[]{"wait", "%1"}, new PrintStream(printed, true)));
+        assertEquals("[1] Done spam" + NL + "0123456789" + NL
+                + "[1] 990 more bytes of output were dropped" + NL, printed.toString());
+    }
+
+    @Test
+    public void outputWithinTheLimitShouldBeKept() throws Exception {
+        Jobs jobs = new Jobs(10);
+        jobs.start("short", out -> {
+            out.print("012345678\n");
+            return 0;
+        });
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        jobs.await(new String[]{"wait"}, new PrintStream(printed, true));
+        assertEquals("[1] Done short" + NL + "012345678\n", printed.toString());
+    }
+}
@@ -10,6 +10,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
 
@@ -153,6 +155,73 @@ public class LSTest {
         osDependent(expectedOutput);
     }
 
+    @Test
+    public void theSFlagShouldSortBySize() throws IOException {
+        Files.write(temporaryFolder.newFile("small.txt").toPath(), new byte[1]);
+        Files.write(temporaryFolder.newFile("large.txt").toPath(), new byte[100]);
+        Files.write(temporaryFolder.newFile("medium.txt").toPath(), new byte[10]);
+        cmdLS = new LSCommand(new String[]{"ls", "-f", "-s"}, temporaryFolder.getRoot().getPath());
+        assertEquals("Files: \nlarge.txt medium.txt small.txt", outContent.toString().trim().replaceAll("\r\n", "\n"));
+    }
+
+    @Test
+    public void theSFlagShouldSeeAFileThatGrewSinceTheLastListing() throws IOException {
+        File small = temporaryFolder.newFile("small.txt");
+        Files.write(small.toPath(), new byte[1]);
+        Files.write(temporaryFolder.newFile("large.txt").toPath(), new byte[100]);
+        new LSCommand(new String[]{"ls", "-f", "-s"}, temporaryFolder.getRoot().getPath());
+        outContent.reset();
+        Files.write(small.toPath(), new byte[1000]);
+        cmdLS = new LSCommand(new String[]{"ls", "-f", "-s"}, temporaryFolder.getRoot().getPath());
+        assertEquals("Files: \nsmall.txt large.txt", outContent.toString().trim().replaceAll("\r\n", "\n"));
+    }
+
+    @Test
+    public void theTFlagShouldSortByModificationTime() throws IOException {
+        setUpTempFiles();
+        long now = System.currentTimeMillis();
+        new File(temporaryFolder.getRoot(), "file1.txt").setLastModified(now - 30000);
+        new File(temporaryFolder.getRoot(), "file2.txt").setLastModified(now - 10000);
+        new File(temporaryFolder.getRoot(), "file3.txt").setLastModified(now - 20000);
+        cmdLS = new LSCommand(new String[]{"ls", "-t", "-lf"}, temporaryFolder.getRoot().getPath());
+        assertEquals("Files:\nfile2.txt\nfile3.txt\nfile1.txt", outContent.toString().trim().replaceAll("\r\n", "\n"));
+    }
+
+    @Test
+    public void theNFlagShouldListSortedNames() throws IOException {
+        setUpTempFiles();
+        setUpTempDirectories();
+        cmdLS = new LSCommand(new String[]{"ls", "-N"}, temporaryFolder.getRoot().getPath());
+        assertEquals("directory1\ndirectory2\ndirectory3\nfile1.txt\nfile2.txt\nfile3.txt", outContent.toString().trim().replaceAll("\r\n", "\n"));
+    }
+
+    @Test
+    public void theUFlagShouldListEveryName() throws IOException {
+        setUpTempFiles();
+        setUpTempDirectories();
+        cmdLS = new LSCommand(new String[]{"ls", "-U"}, temporaryFolder.getRoot().getPath());
+        String[] names = outContent.toString().trim().split("\\R");
+        Arrays.sort(names);
+        assertEquals("[directory1, directory2, directory3, file1.txt, file2.txt, file3.txt]", Arrays.toString(names));
+    }
+
+    @Test
+    public void thePFlagShouldListOnePage() throws IOException {
+        for (int i = 0; i < LSCommand.PAGE_SIZE + 2; i++)
+            temporaryFolder.newFile(String.format("file%05d.txt", i));
+        cmdLS = new LSCommand(new String[]{"ls", "-N", "-p", "2"}, temporaryFolder.getRoot().getPath());
+        assertEquals("file01000.txt\nfile01001.txt", outContent.toString().trim().replaceAll("\r\n", "\n"));
+        outContent.reset();
+        cmdLS = new LSCommand(new String[]{"ls", "-U", "-p", "2"}, temporaryFolder.getRoot().getPath());
+        assertEquals(2, outContent.toString().trim().split("\\R").length);
+    }
+
+    @Test
+    public void anInvalidPageShouldBeReported() {
+        cmdLS = new LSCommand(new String[]{"ls", "-U", "-p", "zero"}, temporaryFolder.getRoot().getPath());
+        assertEquals("Invalid page: zero", outContent.toString().trim());
+    }
+
     @Test
     public void theHelpFlagShouldHaveDefaultOutput() {
         String command = "ls -help";
@@ -180,4 +249,4 @@ public class LSTest {
         final File dir3 = temporaryFolder.newFolder("directory3");
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+package intecmd;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutputSinkTest {
+
+    @Test
+    public void outputShouldOnlyBeWrittenWhenFlushed() {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        PrintStream out = OutputSink.open(target, false);
+        out.println("one");
+        out.println("two");
+        assertEquals(0, target.size());
+        out.flush();
+        assertEquals("one" + System.lineSeparator() + "two" + System.lineSeparator(), target.toString());
+    }
+
+    @Test
+    public void aFlushShouldWaitForTheWriterThread() {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        PrintStream out = OutputSink.open(target, true);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            out.println("line " + i);
+            expected.append("line ").append(i).append(System.lineSeparator());
+        }
+        out.flush();
+        synchronized (target) {
+            assertEquals(expected.toString(), target.toString());
+        }
+    }
+
+    @Test
+    public void manyLinesShouldBeWrittenInFewWrites() {
+        AtomicInteger writes = new AtomicInteger();
+        OutputStream target = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writes.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writes.incrementAndGet();
+            }
+        };
+        PrintStream out = OutputSink.open(target, true);
+        for (int i = 0; i < 10000; i++)
+            out.println("entry " + i);
+        out.flush();
+        assertTrue("writes: " + writes.get(), writes.get() < 20);
+    }
+}
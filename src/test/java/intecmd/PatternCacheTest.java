@@ -0,0 +1,42 @@
+package intecmd;
+
+import intecmd.commands.PatternCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PatternCacheTest {
+
+    private PatternCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new PatternCache(2);
+    }
+
+    @Test
+    public void theSamePatternShouldOnlyBeCompiledOnce() {
+        assertSame(cache.get("a+b"), cache.get("a+b"));
+    }
+
+    @Test
+    public void theLeastRecentlyUsedPatternShouldBeEvicted() {
+        Pattern first = cache.get("first");
+        Pattern second = cache.get("second");
+        cache.get("first");
+        cache.get("third");
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get("first"));
+        assertNotSame(second, cache.get("second"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aCacheWithoutRoomShouldNotBeCreated() {
+        new PatternCache(0);
+    }
+}
@@ -0,0 +1,110 @@
+package intecmd;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptTest {
+
+    private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(outContent, true);
+    private Cmd cmd;
+
+    @Before
+    public void setUp() {
+        cmd = new Cmd();
+    }
+
+    private int run(String script, int parallelism) throws IOException {
+        return new Script(cmd, parallelism).run(new BufferedReader(new StringReader(script)), out);
+    }
+
+    private static String lines(String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines)
+            text.append(line).append(System.lineSeparator());
+        return text.toString();
+    }
+
+    @Test
+    public void linesShouldRunInOrderWithoutAPrompt() throws IOException {
+        assertEquals(0, run("echo one\n\n# a comment\necho two | wc -w\n", 1));
+        assertEquals(lines("one", "Words: 1."), outContent.toString());
+    }
+
+    @Test
+    public void theFirstFailureShouldBeTheStatus() throws IOException {
+        assertEquals(Cmd.NOT_FOUND, run("echo one\nnope\necho two", 1));
+        assertEquals(lines("one", "Unrecognized command", "two"), outContent.toString());
+    }
+
+    @Test
+    public void commandsThatFailShouldGiveAFailureStatus() throws IOException {
+        for (String line : new String[]{"wc missing.txt", "cat missing.txt", "grep foo missing.txt",
+                "cd nowhere", "ls -x", "echo one | wc missing.txt"}) {
+            assertEquals(line, Cmd.FAILURE, run(line, 1));
+            assertEquals(line, Cmd.FAILURE, run(line, 2));
+        }
+        assertEquals(0, run("wc pom.xml", 1));
+        assertEquals(0, run("wc missing.txt | wc -l", 1));
+    }
+
+    @Test
+    public void theStatusOfACommandShouldBeTheExitStatus() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        PrintStream stdout = System.out;
+        System.setOut(out);
+        try {
+            assertEquals(Cmd.FAILURE, Runner.run(new String[]{"-c", "wc missing.txt"}, in, new PrintStream(err)));
+            assertEquals(0, Runner.run(new String[]{"-c", "echo fine"}, in, new PrintStream(err)));
+            assertEquals(255, Runner.run(new String[]{"-c", "exit -1"}, in, new PrintStream(err)));
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    @Test
+    public void exitShouldEndTheScriptWithItsStatus() throws IOException {
+        assertEquals(3, run("echo one\nexit 3\necho two", 1));
+        assertEquals(lines("one"), outContent.toString());
+        assertEquals(0, run("exit", 1));
+        assertEquals(255, run("exit -1", 1));
+        assertEquals(1, run("exit 257", 1));
+    }
+
+    @Test
+    public void parallelLinesShouldBePrintedInOrder() throws IOException {
+        StringBuilder script = new StringBuilder();
+        String[] expected = new String[200];
+        for (int i = 0; i < expected.length; i++) {
+            script.append("echo line ").append(i).append('\n');
+            expected[i] = "line " + i;
+        }
+        assertEquals(0, run(script.toString(), 4));
+        assertEquals(lines(expected), outContent.toString());
+    }
+
+    @Test
+    public void parallelLinesShouldStopAtExit() throws IOException {
+        assertEquals(Cmd.NOT_FOUND, run("echo one\nnope\nexit\necho two", 3));
+        assertEquals(lines("one", "Unrecognized command"), outContent.toString());
+    }
+
+    @Test
+    public void wrongArgumentsShouldGiveTheUsageStatus() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        assertEquals(Runner.USAGE, Runner.run(new String[]{"-c"}, in, new PrintStream(err)));
+        assertEquals(Runner.USAGE, Runner.run(new String[]{"--parallel", "x", "-c", "ls"}, in, new PrintStream(err)));
+        assertEquals(Runner.USAGE, Runner.run(new String[]{"-c", "ls", "script.txt"}, in, new PrintStream(err)));
+    }
+}
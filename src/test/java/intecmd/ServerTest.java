@@ -0,0 +1,135 @@
+package intecmd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServerTest {
+
+    private Server server;
+    private final String processDirectory = new CurrentDirectory().toString();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        server = Server.open(0, temporaryFolder.getRoot().toPath().resolve("tokens"));
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        new CurrentDirectory().setCurrentDirectory(processDirectory);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = connectWithoutToken();
+        writer(socket).println(new String(Files.readAllBytes(server.tokenFile()), StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    private Socket connectWithoutToken() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static PrintStream writer(Socket socket) throws IOException {
+        return new PrintStream(socket.getOutputStream(), true, "UTF-8");
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void aSessionShouldAnswerEveryLine() throws IOException {
+        try (Socket socket = connect()) {
+            PrintStream out = writer(socket);
+            BufferedReader in = reader(socket);
+            out.println("echo hello");
+            assertEquals("hello", in.readLine());
+            out.println("cat pom.xml | wc -l");
+            assertEquals("Lines: 59.", in.readLine());
+            out.println("exit");
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void aSessionWithoutTheTokenShouldRunNothing() throws IOException {
+        File created = new File(temporaryFolder.getRoot(), "created");
+        try (Socket socket = connectWithoutToken()) {
+            PrintStream out = writer(socket);
+            BufferedReader in = reader(socket);
+            out.println("mkdir " + created.getAbsolutePath());
+            assertEquals("Not authorized", in.readLine());
+            assertNull(in.readLine());
+        }
+        assertFalse(created.exists());
+    }
+
+    @Test
+    public void onlyTheUserOfTheServerShouldReadTheToken() throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(server.tokenFile())));
+        server.close();
+        assertFalse(Files.exists(server.tokenFile()));
+    }
+
+    @Test
+    public void everySessionShouldHaveADirectoryOfItsOwn() throws IOException {
+        try (Socket first = connect(); Socket second = connect()) {
+            PrintStream firstOut = writer(first);
+            BufferedReader firstIn = reader(first);
+            PrintStream secondOut = writer(second);
+            BufferedReader secondIn = reader(second);
+
+            firstOut.println("cd src");
+            firstOut.println("ls -ld");
+            assertEquals("Directories:", firstIn.readLine());
+            String listed = firstIn.readLine() + " " + firstIn.readLine();
+            assertTrue(listed, listed.contains("main") && listed.contains("test"));
+
+            secondOut.println("ls -ld");
+            assertEquals("Directories:", secondIn.readLine());
+            boolean sawSrc = false;
+            String line;
+            secondOut.println("echo end");
+            while (!(line = secondIn.readLine()).equals("end"))
+                sawSrc |= line.equals("src");
+            assertTrue(sawSrc);
+        }
+        assertEquals(processDirectory, new CurrentDirectory().toString());
+        assertTrue(new File(processDirectory, "pom.xml").exists());
+    }
+}
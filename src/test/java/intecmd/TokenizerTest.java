@@ -0,0 +1,74 @@
+package intecmd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenizerTest {
+
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    @Test
+    public void spacesAndTabsShouldSeparateTokens() {
+        assertArrayEquals(new String[]{"ls", "-l", "dir"}, tokenizer.tokenize("  ls\t-l   dir "));
+    }
+
+    @Test
+    public void doubleQuotesShouldKeepSpacesAndJoinTheTextAroundThem() {
+        assertArrayEquals(new String[]{"grep", "a b", "x\"y"}, tokenizer.tokenize("grep \"a b\" \"x\\\"y\""));
+        assertArrayEquals(new String[]{"ab cd"}, tokenizer.tokenize("a\"b c\"d"));
+    }
+
+    @Test
+    public void singleQuotesShouldKeepEverythingAsItIs() {
+        assertArrayEquals(new String[]{"echo", "a \\\"b\" | c"}, tokenizer.tokenize("echo 'a \\\"b\" | c'"));
+    }
+
+    @Test
+    public void aBackslashShouldEscapeTheNextCharacter() {
+        assertArrayEquals(new String[]{"cat", "my file.txt", "a|b"}, tokenizer.tokenize("cat my\\ file.txt a\\|b"));
+    }
+
+    @Test
+    public void aBackslashBeforeAnOrdinaryCharacterShouldBeKept() {
+        assertArrayEquals(new String[]{"cd", "C:\\Users\\me"}, tokenizer.tokenize("cd C:\\Users\\me"));
+        assertArrayEquals(new String[]{"cat", "C:\\my docs\\a.txt"}, tokenizer.tokenize("cat C:\\my\\ docs\\a.txt"));
+    }
+
+    @Test
+    public void emptyQuotesShouldBeAnEmptyToken() {
+        assertArrayEquals(new String[]{"grep", "", "f"}, tokenizer.tokenize("grep '' f"));
+    }
+
+    @Test
+    public void onlyAnUnquotedPipeShouldBeAnOperator() {
+        assertEquals(4, tokenizer.scan("a|b \"|\""));
+        assertTrue(tokenizer.isPipe(1));
+        assertFalse(tokenizer.isPipe(3));
+        assertTrue(tokenizer.tokenEquals(3, "|"));
+    }
+
+    @Test
+    public void anUnquotedAmpersandShouldBeAToken() {
+        assertArrayEquals(new String[]{"grep", "a", "f.txt", "&"}, tokenizer.tokenize("grep a f.txt&"));
+        assertEquals(2, tokenizer.scan("echo '&'"));
+        assertFalse(tokenizer.isBackground(1));
+        assertEquals(2, tokenizer.scan("wc &"));
+        assertTrue(tokenizer.isBackground(1));
+        assertFalse(tokenizer.isPipe(1));
+    }
+
+    @Test
+    public void buffersShouldBeReusedAcrossLines() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            line.append("token").append(i).append(' ');
+        assertEquals(100, tokenizer.scan(line));
+        assertEquals("token99", tokenizer.token(99));
+        assertEquals(2, tokenizer.scan("cd .."));
+        assertEquals("..", tokenizer.slice(1).toString());
+    }
+}
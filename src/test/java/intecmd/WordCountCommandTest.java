@@ -1,12 +1,21 @@
 package intecmd;
 
+import intecmd.commands.PatternCache;
 import intecmd.commands.WordCountCommand;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-import org.omg.CORBA.Current;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 
@@ -18,6 +27,9 @@ public class WordCountCommandTest {
 	private InputStream testStream;
 	private CurrentDirectory directory = new CurrentDirectory();
 
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	@Before
 	public void setUpTests() {
 		System.setOut(new PrintStream(outContent));
@@ -140,6 +152,134 @@ public class WordCountCommandTest {
 		wordCountCommand.updateCounts(new long[] {3, 12, 2});
 		assertEquals("Words: 3.\nCharacters: 12.\nLines: 2.\n", wordCountCommand.call().toString());
 	}
+	@Test
+	public void theMappedCounterShouldMatchTheStreamAcrossChunks() throws Exception {
+		String text = "this\r\nis ῥῶ \u2003spaced\u00A0words\r\n\rand\ttabs \uD83D\uDE00 end\n\n";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			sb.append(text).append(i);
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		File file = temporaryFolder.newFile("mapped.txt");
+		Files.write(file.toPath(), bytes);
+		wordCountCommand.setCharset(StandardCharsets.UTF_8);
+		long[] expected = wordCountCommand.processStream(new ByteArrayInputStream(bytes));
+		for (int chunkSize : new int[]{1, 2, 3, 7, 64, bytes.length}) {
+			long[] longs = wordCountCommand.processMapped(file, chunkSize);
+			assertEquals(expected[0], longs[0]);
+			assertEquals(expected[1], longs[1]);
+			assertEquals(expected[2], longs[2]);
+		}
+	}
+
+	@Test
+	public void theMappedCounterShouldOnlyCountLinesWithTheLineFlag() throws Exception {
+		File file = temporaryFolder.newFile("lines.txt");
+		Files.write(file.toPath(), "this\r\nis\r\nfour\r\nlines.\r\n".getBytes(StandardCharsets.UTF_8));
+		wordCountCommand.in(new String[]{"-l"});
+		wordCountCommand.setCharset(StandardCharsets.UTF_8);
+		long[] longs = wordCountCommand.processMapped(file, 3);
+		assertEquals(0L, longs[0]);
+		assertEquals(4L, longs[2]);
+	}
+
+	@Test
+	public void theByteCounterShouldMatchTheDecodingCounter() throws Exception {
+		String text = "this\r\nis ῥῶ \u2003spaced\u00A0words\r\n\rand\ttabs \uD83D\uDE00 end\n\nlast";
+		wordCountCommand.setCharset(StandardCharsets.UTF_16LE); //not supported by the byte counter
+		long[] expected = wordCountCommand.processStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_16LE)));
+		wordCountCommand.setCharset(StandardCharsets.UTF_8);
+		//hand out one byte at a time so characters are cut between blocks
+		testStream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		long[] longs = wordCountCommand.processStream(testStream);
+		assertEquals(expected[0], longs[0]);
+		assertEquals(expected[1], longs[1]);
+		assertEquals(expected[2], longs[2]);
+	}
+
+	@Test
+	public void malformedBytesShouldCountLikeTheDecodingCounter() throws Exception {
+		//leads, continuations and bytes that can never start a character
+		int[] alphabet = {'a', ' ', '\t', '\r', '\n', 0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xA9, 0xBF,
+				0xC0, 0xC2, 0xDF, 0xE0, 0xE1, 0xED, 0xEF, 0xF0, 0xF1, 0xF4, 0xF5, 0xF8, 0xFF};
+		Random random = new Random(42);
+		File file = temporaryFolder.newFile("malformed.txt");
+		for (int round = 0; round < 2000; round++) {
+			byte[] bytes = new byte[random.nextInt(24)];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) alphabet[random.nextInt(alphabet.length)];
+			}
+			String decoded = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE)
+					.decode(ByteBuffer.wrap(bytes)).toString();
+			wordCountCommand.setCharset(StandardCharsets.UTF_16LE); //not supported by the byte counter
+			long[] expected = wordCountCommand.processStream(new ByteArrayInputStream(decoded.getBytes(StandardCharsets.UTF_16LE)));
+			wordCountCommand.setCharset(StandardCharsets.UTF_8);
+			long[] longs = wordCountCommand.processStream(new ByteArrayInputStream(bytes) {
+				@Override
+				public synchronized int read(byte[] b, int off, int len) {
+					return super.read(b, off, Math.min(len, 1));
+				}
+			});
+			Files.write(file.toPath(), bytes);
+			long[] mapped = wordCountCommand.processMapped(file, 3);
+			String input = Arrays.toString(bytes);
+			for (int i = 0; i < 3; i++) {
+				assertEquals(input, expected[i], longs[i]);
+				assertEquals(input, expected[i], mapped[i]);
+			}
+		}
+	}
+
+	@Test
+	public void everyFileShouldGetARowAndATotal() throws Exception {
+		File first = temporaryFolder.newFile("first.txt");
+		File second = temporaryFolder.newFile("second.txt");
+		Files.write(first.toPath(), "one two\nthree\n".getBytes(StandardCharsets.US_ASCII));
+		Files.write(second.toPath(), "four\n".getBytes(StandardCharsets.US_ASCII));
+		wordCountCommand.in(new String[]{"wc", "-w", "-l", first.getPath(), "missing" + File.separator + "file", second.getPath()});
+		assertEquals("Words\tLines\tFile\n" +
+				"3\t2\t" + first.getPath() + "\n" +
+				"1\t1\t" + second.getPath() + "\n" +
+				"4\t3\ttotal\n", wordCountCommand.call());
+		assertEquals("Could not open missing" + File.separator + "file.\n" +
+				"An error occurred when processing the stream.", outContent.toString().trim().replaceAll("\\r\\n", "\n"));
+	}
+
+	@Test
+	public void executeShouldWriteEveryMessageToTheGivenOutput() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Context context = new Context(CurrentDirectory.detached(temporaryFolder.getRoot().getPath()), new PatternCache());
+		wordCountCommand.execute(new String[]{"wc", "missing.txt"}, null, new PrintStream(bytes, true), context);
+		assertEquals("Could not open " + new File(temporaryFolder.getRoot(), "missing.txt").getPath() + ".\n" +
+				"An error occurred when processing the stream.\n" +
+				"Exiting wc.", bytes.toString().trim().replaceAll("\\r\\n", "\n"));
+		assertEquals("", outContent.toString());
+	}
+
+	@Test
+	public void theAsyncCountShouldCompleteWithTheCounts() throws Exception {
+		File file = temporaryFolder.newFile("async.txt");
+		Files.write(file.toPath(), "this is\nfour words\n".getBytes(StandardCharsets.US_ASCII));
+		long[] longs = wordCountCommand.countAsync(file.getPath()).get(10, TimeUnit.SECONDS);
+		assertEquals(4L, longs[0]);
+		assertEquals(2L, longs[2]);
+	}
+
+	@Test
+	public void theCallShouldWaitForTheStartedCount() throws Exception {
+		File file = temporaryFolder.newFile("started.txt");
+		Files.write(file.toPath(), "one two three\n".getBytes(StandardCharsets.US_ASCII));
+		wordCountCommand.start(new String[]{"wc", "-w", file.getPath()});
+		assertEquals("Words: 3.\n", wordCountCommand.call(10, TimeUnit.SECONDS));
+	}
+
 	@After
 	public void cleanUpTests() throws IOException {
 		System.setOut(oldOut);